@@ -0,0 +1,67 @@
+package kaspi.lab.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import kaspi.lab.eventContract.FileUploadedEvent;
+import kaspi.lab.eventContract.FileUploadedEventCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кодирование FileUploadedEvent в outbox и декодирование в FileProcessingConsumer:
+ * бинарный формат против JSON, которым события писались раньше.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EventCodecBenchmark {
+
+    // Так же настроен ObjectMapper в JacksonConfig обоих сервисов
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    private FileUploadedEvent event;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        UUID fileId = UUID.randomUUID();
+        event = new FileUploadedEvent(
+                fileId,
+                "/tmp/file-uploader/uploads/" + fileId,
+                "report-2024-q4.pdf",
+                "application/pdf",
+                1_048_576L,
+                "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08",
+                null,
+                Instant.now());
+        json = objectMapper.writeValueAsBytes(event);
+        binary = FileUploadedEventCodec.encode(event);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws IOException {
+        return objectMapper.writeValueAsBytes(event);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return FileUploadedEventCodec.encode(event);
+    }
+
+    @Benchmark
+    public FileUploadedEvent decodeJson() throws IOException {
+        return FileUploadedEventCodec.decodeOrJson(json, objectMapper);
+    }
+
+    @Benchmark
+    public FileUploadedEvent decodeBinary() throws IOException {
+        return FileUploadedEventCodec.decodeOrJson(binary, objectMapper);
+    }
+}
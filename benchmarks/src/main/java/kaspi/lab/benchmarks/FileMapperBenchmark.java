@@ -0,0 +1,64 @@
+package kaspi.lab.benchmarks;
+
+import kaspi.lab.eventContract.FileUploadedEvent;
+import kaspi.lab.uploadService.domain.FileEntity;
+import kaspi.lab.uploadService.dto.request.FileUploadRequest;
+import kaspi.lab.uploadService.dto.response.FileUploadResponse;
+import kaspi.lab.uploadService.mapper.FileMapper;
+import kaspi.lab.uploadService.mapper.FileMapperImpl;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileMapper на пути каждого запроса: request -> entity, entity -> событие, entity -> ответ.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FileMapperBenchmark {
+
+    private final FileMapper fileMapper = new FileMapperImpl();
+
+    private FileUploadRequest request;
+    private FileEntity entity;
+
+    @Setup
+    public void setUp() {
+        request = FileUploadRequest.builder()
+                .filename("report-2024-q4.pdf")
+                .contentType("application/pdf")
+                .size(1_048_576)
+                .build();
+        entity = FileEntity.builder()
+                .id(UUID.randomUUID())
+                .idempotencyKey(UUID.randomUUID().toString())
+                .filename("report-2024-q4.pdf")
+                .contentType("application/pdf")
+                .size(1_048_576L)
+                .status("PENDING")
+                .storagePath("/tmp/file-uploader/uploads/" + UUID.randomUUID())
+                .contentHash("9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08")
+                .createdAt(Instant.now())
+                .build();
+    }
+
+    @Benchmark
+    public FileEntity toEntity() {
+        return fileMapper.toEntity(request, "idempotency-key");
+    }
+
+    @Benchmark
+    public FileUploadedEvent toEvent() {
+        return fileMapper.toEvent(entity, entity.getStoragePath());
+    }
+
+    @Benchmark
+    public FileUploadResponse toResponse() {
+        return fileMapper.toResponse(entity);
+    }
+}
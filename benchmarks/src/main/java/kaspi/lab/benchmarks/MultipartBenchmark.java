@@ -0,0 +1,113 @@
+package kaspi.lab.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpInputMessage;
+import org.springframework.http.codec.multipart.DefaultPartHttpMessageReader;
+import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.Part;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор multipart-тела и проход по содержимому части с подсчётом SHA-256 и размера,
+ * как это делает UploadServiceImpl перед записью на диск. Сама запись на диск не меряется.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MultipartBenchmark {
+
+    private static final String BOUNDARY = "benchmark-boundary";
+    // Размер буферов, которыми данные приходят из сети
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    @Param({"1024", "65536", "1048576"})
+    public int partSize;
+
+    @Param({"1", "16"})
+    public int parts;
+
+    private final DefaultPartHttpMessageReader reader = new DefaultPartHttpMessageReader();
+    private byte[] body;
+
+    @Setup
+    public void setUp() {
+        // Части держим в памяти, иначе бенчмарк мерил бы запись временных файлов ридером
+        reader.setMaxInMemorySize(Math.max(256 * 1024, partSize * 2));
+
+        byte[] content = new byte[partSize];
+        new Random(42).nextBytes(content);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < parts; i++) {
+            out.writeBytes(("--" + BOUNDARY + "\r\n"
+                    + "Content-Disposition: form-data; name=\"file\"; filename=\"file-" + i + ".bin\"\r\n"
+                    + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(content);
+            out.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        out.writeBytes(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        body = out.toByteArray();
+    }
+
+    @Benchmark
+    public long parseAndDigest() throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+        Long total = reader.read(ResolvableType.forClass(Part.class), request(), Map.of())
+                .cast(FilePart.class)
+                .concatMap(part -> part.content()
+                        .map(buffer -> {
+                            int size = buffer.readableByteCount();
+                            try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+                                iterator.forEachRemaining(digest::update);
+                            }
+                            DataBufferUtils.release(buffer);
+                            return (long) size;
+                        }))
+                .reduce(0L, Long::sum)
+                .block();
+
+        digest.digest();
+        return total != null ? total : 0;
+    }
+
+    private ReactiveHttpInputMessage request() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(new MediaType(MediaType.MULTIPART_FORM_DATA, Map.of("boundary", BOUNDARY)));
+
+        Flux<DataBuffer> chunks = Flux.range(0, (body.length + CHUNK_SIZE - 1) / CHUNK_SIZE)
+                .map(i -> {
+                    int from = i * CHUNK_SIZE;
+                    return DefaultDataBufferFactory.sharedInstance.wrap(ByteBuffer.wrap(body, from, Math.min(CHUNK_SIZE, body.length - from)));
+                });
+
+        return new ReactiveHttpInputMessage() {
+            @Override
+            public HttpHeaders getHeaders() {
+                return headers;
+            }
+
+            @Override
+            public Flux<DataBuffer> getBody() {
+                return chunks;
+            }
+        };
+    }
+}
@@ -0,0 +1,26 @@
+package kaspi.lab.eventContract;
+
+import java.util.List;
+
+/**
+ * Кодировки сжатия объектов в MinIO. processingService пишет их в files.content_encoding,
+ * uploadService по ним распаковывает объект при скачивании.
+ */
+public final class ContentEncodings {
+
+    public static final String ZSTD = "zstd";
+    public static final String GZIP = "gzip";
+
+    public static final List<String> ALL = List.of(ZSTD, GZIP);
+
+    private ContentEncodings() {
+    }
+
+    /**
+     * Сжатая копия временного файла лежит рядом с ним: <имя>.<кодировка>.
+     * По этому имени её находит и чистка брошенных временных файлов.
+     */
+    public static String tempFileName(String sourceName, String encoding) {
+        return sourceName + "." + encoding;
+    }
+}
@@ -0,0 +1,23 @@
+package kaspi.lab.eventContract;
+
+import java.util.UUID;
+
+/**
+ * Канал Postgres NOTIFY, через который processingService сообщает об изменении статуса файла.
+ * Payload - "id:status", его собирает сам UPDATE (id::text || ':' || status).
+ */
+public final class FileStatusNotifications {
+
+    public static final String CHANNEL = "file_status";
+
+    private FileStatusNotifications() {
+    }
+
+    public static UUID fileId(String payload) {
+        int separator = payload.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Malformed file status notification: " + payload);
+        }
+        return UUID.fromString(payload.substring(0, separator));
+    }
+}
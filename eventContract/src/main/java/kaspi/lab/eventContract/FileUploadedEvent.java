@@ -0,0 +1,21 @@
+package kaspi.lab.eventContract;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Событие о загруженном файле. Одно определение на оба сервиса;
+ * при добавлении поля нужно поднять версию в {@link FileUploadedEventCodec}.
+ */
+public record FileUploadedEvent(
+        UUID fileId,
+        String tempPath,
+        String filename,
+        String contentType,
+        long size,
+        String contentHash,
+        // Заполнен, если uploadService уже положил файл в MinIO (режим stream)
+        String storedObject,
+        // Начало загрузки в uploadService, для метрики полной задержки до COMPLETED
+        Instant uploadedAt
+) {}
@@ -0,0 +1,159 @@
+package kaspi.lab.eventContract;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * Бинарный формат {@link FileUploadedEvent}:
+ * <pre>
+ * magic (1) | version (1) | fileId (16) | size (8) | uploadedAt: epochSecond (8) + nano (4) |
+ * tempPath | filename | contentType | contentHash | storedObject
+ * </pre>
+ * Строки записываются как varint (длина в байтах UTF-8 + 1) и сами байты; 0 означает null.
+ * Отсутствующий uploadedAt пишется как nano = -1.
+ * JSON начинается с '{' или пробела, поэтому по первому байту старый формат отличается от нового.
+ * Сообщение в любом из двух форматов читает {@link #decodeOrJson}.
+ */
+public final class FileUploadedEventCodec {
+
+    public static final byte MAGIC = (byte) 0xFE;
+    public static final byte VERSION = 1;
+
+    private static final int HEADER_SIZE = 2 + 16 + 8 + 8 + 4;
+
+    private FileUploadedEventCodec() {
+    }
+
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length > 0 && data[0] == MAGIC;
+    }
+
+    /**
+     * Сообщения, отправленные до перехода на бинарный формат, приходят в JSON; objectMapper
+     * должен понимать Instant (JavaTimeModule), как в JacksonConfig сервисов.
+     */
+    public static FileUploadedEvent decodeOrJson(byte[] message, ObjectMapper objectMapper) throws IOException {
+        return isBinary(message)
+                ? decode(message)
+                : objectMapper.readValue(message, FileUploadedEvent.class);
+    }
+
+    public static byte[] encode(FileUploadedEvent event) {
+        byte[][] strings = {
+                utf8(event.tempPath()),
+                utf8(event.filename()),
+                utf8(event.contentType()),
+                utf8(event.contentHash()),
+                utf8(event.storedObject())
+        };
+
+        int length = HEADER_SIZE;
+        for (byte[] s : strings) {
+            length += s == null ? 1 : varIntSize(s.length + 1) + s.length;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.put(MAGIC).put(VERSION);
+        buf.putLong(event.fileId().getMostSignificantBits()).putLong(event.fileId().getLeastSignificantBits());
+        buf.putLong(event.size());
+        Instant uploadedAt = event.uploadedAt();
+        buf.putLong(uploadedAt != null ? uploadedAt.getEpochSecond() : 0L);
+        buf.putInt(uploadedAt != null ? uploadedAt.getNano() : -1);
+        for (byte[] s : strings) {
+            if (s == null) {
+                buf.put((byte) 0);
+            } else {
+                putVarInt(buf, s.length + 1);
+                buf.put(s);
+            }
+        }
+        return buf.array();
+    }
+
+    public static FileUploadedEvent decode(byte[] data) {
+        if (!isBinary(data)) {
+            throw new IllegalArgumentException("Not a binary FileUploadedEvent");
+        }
+        if (data.length < 2 || data[1] != VERSION) {
+            throw new IllegalArgumentException("Unsupported FileUploadedEvent version: " + (data.length < 2 ? "none" : data[1]));
+        }
+
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data, 2, data.length - 2);
+            UUID fileId = new UUID(buf.getLong(), buf.getLong());
+            long size = buf.getLong();
+            long epochSecond = buf.getLong();
+            int nano = buf.getInt();
+            Instant uploadedAt = nano >= 0 ? Instant.ofEpochSecond(epochSecond, nano) : null;
+
+            return new FileUploadedEvent(
+                    fileId,
+                    getString(buf),
+                    getString(buf),
+                    getString(buf),
+                    size,
+                    getString(buf),
+                    getString(buf),
+                    uploadedAt);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated FileUploadedEvent", e);
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int length = getVarInt(buf);
+        if (length == 0) {
+            return null;
+        }
+        // Длина пришла из сообщения: без проверки битый varint выделил бы до 2 ГБ
+        if (length - 1 > buf.remaining()) {
+            throw new IllegalArgumentException("String of " + (length - 1) + " bytes exceeds the remaining "
+                    + buf.remaining() + " bytes of FileUploadedEvent");
+        }
+        byte[] bytes = new byte[length - 1];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarInt(ByteBuffer buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    // Не больше 5 байт, и значение не выходит за int без знака - иначе длина стала бы отрицательной
+    private static int getVarInt(ByteBuffer buf) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buf.get();
+            if (shift == 28 && (b & 0xF8) != 0) {
+                break;
+            }
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in FileUploadedEvent");
+    }
+}
@@ -0,0 +1,112 @@
+package kaspi.lab.eventContract;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FileUploadedEventCodecTest {
+
+    // magic + version + fileId + size + uploadedAt
+    private static final int HEADER_SIZE = 38;
+
+    private static final FileUploadedEvent FULL = new FileUploadedEvent(
+            UUID.randomUUID(),
+            "/tmp/file-uploader/uploads/ab/cd/file",
+            "отчёт-" + "x".repeat(300) + ".csv",
+            "text/csv",
+            10L * 1024 * 1024 * 1024,
+            "a".repeat(64),
+            "content/" + "a".repeat(64),
+            Instant.parse("2026-01-02T03:04:05.123456789Z"));
+
+    @Test
+    @DisplayName("Событие переживает кодирование и декодирование без изменений")
+    void roundTrip() {
+        byte[] data = FileUploadedEventCodec.encode(FULL);
+
+        assertThat(FileUploadedEventCodec.isBinary(data)).isTrue();
+        assertThat(FileUploadedEventCodec.decode(data)).isEqualTo(FULL);
+    }
+
+    @Test
+    @DisplayName("decodeOrJson читает и бинарный формат, и JSON старых сообщений")
+    void decodeOrJson() throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+        assertThat(FileUploadedEventCodec.decodeOrJson(FileUploadedEventCodec.encode(FULL), objectMapper)).isEqualTo(FULL);
+        assertThat(FileUploadedEventCodec.decodeOrJson(objectMapper.writeValueAsBytes(FULL), objectMapper)).isEqualTo(FULL);
+    }
+
+    @Test
+    @DisplayName("Пустые строки и uploadedAt декодируются как null")
+    void nullFields() {
+        FileUploadedEvent event = new FileUploadedEvent(UUID.randomUUID(), null, null, null, 0, null, null, null);
+
+        assertThat(FileUploadedEventCodec.decode(FileUploadedEventCodec.encode(event))).isEqualTo(event);
+    }
+
+    @Test
+    @DisplayName("Любое обрезанное сообщение отклоняется как IllegalArgumentException")
+    void truncated() {
+        byte[] data = FileUploadedEventCodec.encode(FULL);
+
+        for (int length = 1; length < data.length; length++) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            assertThatThrownBy(() -> FileUploadedEventCodec.decode(truncated))
+                    .as("prefix of %d bytes", length)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    @DisplayName("Чужой первый байт и неизвестная версия отклоняются")
+    void badMagicAndVersion() {
+        byte[] data = FileUploadedEventCodec.encode(FULL);
+
+        byte[] json = "{\"fileId\":null}".getBytes();
+        assertThat(FileUploadedEventCodec.isBinary(json)).isFalse();
+        assertThatThrownBy(() -> FileUploadedEventCodec.decode(json)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> FileUploadedEventCodec.decode(new byte[0])).isInstanceOf(IllegalArgumentException.class);
+
+        byte[] future = data.clone();
+        future[1] = (byte) (FileUploadedEventCodec.VERSION + 1);
+        assertThatThrownBy(() -> FileUploadedEventCodec.decode(future)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Длина строки больше остатка сообщения не приводит к выделению памяти под неё")
+    void lengthBeyondPayload() {
+        // varint 2^31 - 1: строка почти в 2 ГБ при сообщении в несколько десятков байт
+        byte[] data = withFirstString(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+
+        assertThatThrownBy(() -> FileUploadedEventCodec.decode(data)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Varint длиннее 5 байт или за пределами int отклоняется")
+    void malformedVarInt() {
+        byte[] negative = withFirstString(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        byte[] overlong = withFirstString(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x01});
+
+        assertThatThrownBy(() -> FileUploadedEventCodec.decode(negative)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> FileUploadedEventCodec.decode(overlong)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    // Заголовок корректного события, за которым вместо tempPath идёт varint
+    private static byte[] withFirstString(byte[] varInt) {
+        byte[] header = FileUploadedEventCodec.encode(
+                new FileUploadedEvent(UUID.randomUUID(), null, null, null, 1, null, null, Instant.now()));
+        byte[] data = Arrays.copyOf(header, HEADER_SIZE + varInt.length);
+        System.arraycopy(varInt, 0, data, HEADER_SIZE, varInt.length);
+        return data;
+    }
+}
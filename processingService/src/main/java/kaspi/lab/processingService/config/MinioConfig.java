@@ -1,6 +1,8 @@
 package kaspi.lab.processingService.config;
 
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
+import kaspi.lab.processingService.service.MultipartMinioClient;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -24,4 +26,12 @@ public class MinioConfig {
                 .credentials(accessKey, secretKey)
                 .build();
     }
+
+    @Bean
+    public MultipartMinioClient multipartMinioClient() {
+        return new MultipartMinioClient(MinioAsyncClient.builder()
+                .endpoint(endpoint)
+                .credentials(accessKey, secretKey)
+                .build());
+    }
 }
\ No newline at end of file
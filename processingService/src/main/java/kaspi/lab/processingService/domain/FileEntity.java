@@ -19,4 +19,6 @@ public class FileEntity {
     private UUID id;
     private String status;
     private String storagePath;
+    private String contentEncoding;
+    private Long originalSize;
 }
\ No newline at end of file
@@ -0,0 +1,9 @@
+package kaspi.lab.processingService.domain;
+
+/**
+ * Результат загрузки содержимого в MinIO.
+ *
+ * @param contentEncoding zstd или gzip, если объект хранится сжатым, иначе null
+ * @param originalSize    размер несжатого содержимого, null для объектов, загруженных до сжатия
+ */
+public record StoredContent(String objectName, String contentEncoding, Long originalSize) {}
@@ -0,0 +1,24 @@
+package kaspi.lab.processingService.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.relational.core.mapping.Table;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table("stored_objects")
+public class StoredObjectEntity {
+    @Id
+    private String contentHash;
+    private String objectName;
+    private int refCount;
+    private boolean uploaded;
+    // Как объект сжат перед загрузкой (CompressingUploader), null - хранится как есть
+    private String contentEncoding;
+    private Long originalSize;
+}
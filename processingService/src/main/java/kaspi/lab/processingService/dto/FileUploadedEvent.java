@@ -1,11 +0,0 @@
-package kaspi.lab.processingService.dto;
-
-import java.util.UUID;
-
-public record FileUploadedEvent(
-        UUID fileId,
-        String tempPath,
-        String filename,
-        String contentType,
-        long size
-) {}
\ No newline at end of file
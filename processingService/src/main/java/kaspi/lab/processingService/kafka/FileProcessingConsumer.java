@@ -1,20 +1,35 @@
 package kaspi.lab.processingService.kafka;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import kaspi.lab.processingService.domain.FileEntity;
-import kaspi.lab.processingService.dto.FileUploadedEvent;
-import kaspi.lab.processingService.repository.FileRepository;
-import kaspi.lab.processingService.service.MinioService;
+import io.micrometer.tracing.Span;
+import kaspi.lab.eventContract.FileUploadedEvent;
+import kaspi.lab.eventContract.FileUploadedEventCodec;
+import kaspi.lab.processingService.domain.StoredContent;
+import kaspi.lab.processingService.metrics.ProcessingMetrics;
+import kaspi.lab.processingService.pipeline.ProcessingContext;
+import kaspi.lab.processingService.pipeline.ProcessingPipeline;
+import kaspi.lab.processingService.service.ContentAddressedStorage;
+import kaspi.lab.processingService.service.FileStatusWriter;
+import kaspi.lab.processingService.tracing.EventTracing;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
 import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 @Slf4j
 @Component
@@ -22,38 +37,111 @@ import java.nio.file.Paths;
 public class FileProcessingConsumer {
 
     private final ObjectMapper objectMapper;
-    private final MinioService minioService;
-    private final FileRepository fileRepository;
-
-    @KafkaListener(topics = "file-uploaded-topic", groupId = "processing-group")
-    public void consume(String message) {
-        log.info("DEBUG: Сообщение получено из Kafka: {}", message);
-
-        Mono.fromCallable(() -> objectMapper.readValue(message, FileUploadedEvent.class))
-                .flatMap(event -> {
-                    Path tempFile = Paths.get(event.tempPath());
-                    String objectName = event.fileId().toString(); // Имя файла в MinIO будет UUID
-
-                    return minioService.uploadFile(tempFile, event.contentType(), objectName)
-                            .flatMap(uploadedPath -> {
-                                // Файл загружен, обновляем статус в БД
-                                return fileRepository.findById(event.fileId())
-                                        .flatMap(entity -> {
-                                            entity.setStatus("COMPLETED");
-                                            entity.setStoragePath("minio://" + uploadedPath);
-                                            return fileRepository.save(entity);
-                                        });
-                            })
-                            .doOnSuccess(saved -> {
-                                log.info("File processed successfully. ID: {}", saved.getId());
-                                deleteTempFile(tempFile); // Удаляем файл с диска
-                            })
-                            .doOnError(err -> {
-                                log.error("Error processing file: {}", event.fileId(), err);
-                                updateStatusToFailed(event.fileId());
-                            });
+    private final ProcessingPipeline processingPipeline;
+    private final FileStatusWriter fileStatusWriter;
+    private final ContentAddressedStorage contentAddressedStorage;
+    private final ProcessingMetrics processingMetrics;
+    private final EventTracing eventTracing;
+
+    // На весь инстанс: делится поровну между listener-concurrency потоками
+    @Value("${app.processing.max-in-flight:16}")
+    private int maxInFlight;
+
+    @Value("${app.kafka.listener-concurrency:1}")
+    private int listenerConcurrency;
+
+    /**
+     * Батч из poll() обрабатывается целиком, и только потом коммитится offset. Пока батч
+     * не дообработан, следующий poll() не делается - это и есть backpressure для Kafka.
+     * Записи с одним ключом (или из одной партиции, если ключа нет) идут строго по порядку,
+     * разные ключи - параллельно, но не больше max-in-flight / listener-concurrency файлов
+     * на поток, так что весь инстанс держит в работе не больше max-in-flight файлов.
+     * Поэтому max-poll-records держится около этой доли, а max.poll.interval.ms покрывает
+     * самый долгий файл батча - иначе consumer выпадет из группы и батч будет перечитываться.
+     * Партиции топика делятся между listener-concurrency потоками этого инстанса и
+     * остальными инстансами группы; ключ (id файла) всегда попадает в одну партицию.
+     */
+    @KafkaListener(topics = "${app.kafka.topic}", groupId = "processing-group", batch = "true",
+            concurrency = "${app.kafka.listener-concurrency}")
+    public void consume(List<ConsumerRecord<String, byte[]>> records, Acknowledgment ack) {
+        log.info("Received batch of {} records from Kafka", records.size());
+
+        Map<String, List<ConsumerRecord<String, byte[]>>> lanes = records.stream()
+                .collect(Collectors.groupingBy(this::orderingKey, LinkedHashMap::new, Collectors.toList()));
+
+        Flux.fromIterable(lanes.values())
+                .flatMap(lane -> Flux.fromIterable(lane).concatMap(record -> processingMetrics.timeProcessing(traced(record))),
+                        Math.max(1, maxInFlight / listenerConcurrency))
+                .then()
+                .block(); // Исключение (например, недоступна БД) не даст закоммитить offset, батч будет перечитан
+
+        ack.acknowledge();
+    }
+
+    private String orderingKey(ConsumerRecord<String, byte[]> record) {
+        return record.key() != null ? record.key() : "partition-" + record.partition();
+    }
+
+    private Mono<Void> traced(ConsumerRecord<String, byte[]> record) {
+        return Mono.defer(() -> {
+            Span span = eventTracing.startProcessing(record);
+            return process(record.value(), span)
+                    .doOnError(span::error)
+                    .doFinally(signal -> span.end());
+        });
+    }
+
+    private Mono<Void> process(byte[] message, Span span) {
+        FileUploadedEvent event;
+        try {
+            event = FileUploadedEventCodec.decodeOrJson(message, objectMapper);
+        } catch (IOException | IllegalArgumentException e) {
+            // Битое сообщение перечитывать бессмысленно - пропускаем, чтобы не блокировать партицию
+            log.error("Skipping malformed message of {} bytes", message != null ? message.length : 0, e);
+            return Mono.empty();
+        }
+        span.tag("file.id", event.fileId().toString());
+
+        if (event.storedObject() != null) {
+            // Файл уже загружен в MinIO потоком (без сжатия), осталось только отметить его.
+            // Временного файла нет, поэтому конвейер (контрольная сумма, формат) для него не выполняется
+            return markCompleted(event.fileId(), new StoredContent(event.storedObject(), null, event.size()), span)
+                    .doOnSuccess(ignored -> {
+                        processingMetrics.recordCompleted(event.uploadedAt());
+                        log.info("Streamed file registered. ID: {}", event.fileId());
+                    });
+        }
+
+        Path tempFile = Paths.get(event.tempPath());
+
+        ProcessingContext context = new ProcessingContext(event, tempFile);
+
+        return processingPipeline.run(context, span)
+                // Файл проверен и загружен, обновляем статус в БД
+                .then(Mono.defer(() -> markCompleted(event.fileId(), context.getStoredContent(), span)))
+                // Объект загружен, но файл не станет COMPLETED - отпускаем ссылку (ошибку загрузки отпускает сам store)
+                .onErrorResume(err -> context.getStoredContent() != null
+                        ? releaseContent(event).then(Mono.error(err))
+                        : Mono.error(err))
+                .doOnSuccess(ignored -> {
+                    processingMetrics.recordCompleted(event.uploadedAt());
+                    log.info("File processed successfully. ID: {}", event.fileId());
+                    deleteTempFile(tempFile); // Удаляем файл с диска
                 })
-                .subscribe(); // Запускаем реактивную цепочку
+                .onErrorResume(err -> {
+                    log.error("Error processing file: {}", event.fileId(), err);
+                    span.error(err);
+                    return eventTracing.child(span, "file status update", fileStatusWriter.markFailed(event.fileId()));
+                });
+    }
+
+    private Mono<Void> releaseContent(FileUploadedEvent event) {
+        return event.contentHash() != null ? contentAddressedStorage.release(event.fileId()) : Mono.empty();
+    }
+
+    private Mono<Void> markCompleted(UUID id, StoredContent content, Span span) {
+        return eventTracing.child(span, "file status update", fileStatusWriter.markCompleted(
+                id, "minio://" + content.objectName(), content.contentEncoding(), content.originalSize()));
     }
 
     private void deleteTempFile(Path path) {
@@ -64,12 +152,4 @@ public class FileProcessingConsumer {
             log.warn("Could not delete temp file: {}", path, e);
         }
     }
-
-    private void updateStatusToFailed(java.util.UUID id) {
-        fileRepository.findById(id)
-                .flatMap(entity -> {
-                    entity.setStatus("FAILED");
-                    return fileRepository.save(entity);
-                }).subscribe();
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,104 @@
+package kaspi.lab.processingService.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import kaspi.lab.processingService.pipeline.StageKind;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Метрики processingService: обработка события, загрузка в MinIO и полная задержка
+ * от начала загрузки в uploadService до статуса COMPLETED, степень сжатия. Отдаются через /actuator/prometheus.
+ */
+@Component
+public class ProcessingMetrics {
+
+    private record StageKey(String stage, StageKind kind) {}
+
+    private final Timer processing;
+    private final Timer minioUpload;
+    private final DistributionSummary minioThroughput;
+    private final Timer endToEnd;
+    private final MeterRegistry registry;
+
+    // Метры с тегами создаются один раз на набор тегов, а не на каждый вызов
+    private final Map<StageKey, Timer> stageTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> compressionTimers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> compressionRatios = new ConcurrentHashMap<>();
+
+    public ProcessingMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.processing = Timer.builder("processing.event.duration")
+                .description("Time to process one file-uploaded event, including the MinIO upload and status update")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.minioUpload = Timer.builder("processing.minio.upload")
+                .description("Time to upload one file to MinIO")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.minioThroughput = DistributionSummary.builder("processing.minio.upload.throughput")
+                .description("MinIO upload throughput per file")
+                .baseUnit("bytes/s")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.endToEnd = Timer.builder("file.upload.completion")
+                .description("Time from the start of the upload in uploadService to the COMPLETED status")
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    public <T> Mono<T> timeProcessing(Mono<T> work) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return work.doFinally(signal -> processing.record(Duration.ofNanos(System.nanoTime() - start)));
+        });
+    }
+
+    public <T> Mono<T> timeStage(String stage, StageKind kind, Mono<T> work) {
+        Timer timer = stageTimers.computeIfAbsent(new StageKey(stage, kind), key -> Timer.builder("processing.stage")
+                .description("Time spent in one processing pipeline stage")
+                .tags("stage", key.stage(), "kind", key.kind().name())
+                .publishPercentileHistogram()
+                .register(registry));
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return work.doFinally(signal -> timer.record(Duration.ofNanos(System.nanoTime() - start)));
+        });
+    }
+
+    public void recordMinioUpload(long bytes, Duration elapsed) {
+        minioUpload.record(elapsed);
+        if (!elapsed.isZero()) {
+            minioThroughput.record(bytes * 1_000_000_000.0 / elapsed.toNanos());
+        }
+    }
+
+    // Теги - только алгоритм, так что метров не больше двух на каждый тип
+    public void recordCompression(String encoding, long originalBytes, long compressedBytes, Duration elapsed) {
+        compressionTimers.computeIfAbsent(encoding, tag -> Timer.builder("processing.compression")
+                        .description("Time to compress one file before the MinIO upload")
+                        .tags("encoding", tag)
+                        .register(registry))
+                .record(elapsed);
+        if (originalBytes > 0) {
+            compressionRatios.computeIfAbsent(encoding, tag -> DistributionSummary.builder("processing.compression.ratio")
+                            .description("Compressed size divided by original size")
+                            .tags("encoding", tag)
+                            .register(registry))
+                    .record((double) compressedBytes / originalBytes);
+        }
+    }
+
+    public void recordCompleted(Instant uploadedAt) {
+        // События от старой версии uploadService приходят без uploadedAt
+        if (uploadedAt != null) {
+            endToEnd.record(Duration.between(uploadedAt, Instant.now()));
+        }
+    }
+}
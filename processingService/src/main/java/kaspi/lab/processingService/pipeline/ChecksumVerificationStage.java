@@ -0,0 +1,75 @@
+package kaspi.lab.processingService.pipeline;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Сверяет SHA-256 временного файла с contentHash из события. По хешу файл дедуплицируется
+ * в MinIO, поэтому повреждённая копия не должна попасть в хранилище под чужим хешем.
+ * Файл читается блокирующе на IO-пуле, а хеш считается на CPU-пуле; между ними в памяти
+ * не больше PREFETCH буферов, так что большие файлы не занимают потоки параллельного пула чтением.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChecksumVerificationStage implements ProcessingStage {
+
+    public static final String NAME = "checksum";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int PREFETCH = 4;
+
+    private final ProcessingSchedulers schedulers;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public StageKind kind() {
+        return StageKind.CPU;
+    }
+
+    @Override
+    public Mono<Void> execute(ProcessingContext context) {
+        String expected = context.getEvent().contentHash();
+        if (expected == null) {
+            // Возобновляемые загрузки приходят без хеша
+            return Mono.empty();
+        }
+        return sha256(context)
+                .flatMap(actual -> actual.equalsIgnoreCase(expected)
+                        ? Mono.<Void>empty()
+                        : Mono.error(new IllegalStateException("Checksum mismatch for file " + context.getEvent().fileId()
+                                + ": expected " + expected + ", got " + actual)));
+    }
+
+    private Mono<String> sha256(ProcessingContext context) {
+        return Mono.fromCallable(ChecksumVerificationStage::newDigest)
+                .flatMap(digest -> DataBufferUtils.readInputStream(
+                                () -> Files.newInputStream(context.getFile()), DefaultDataBufferFactory.sharedInstance, BUFFER_SIZE)
+                        .subscribeOn(schedulers.io())
+                        .publishOn(schedulers.cpu(), PREFETCH)
+                        .doOnNext(buffer -> {
+                            try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+                                iterator.forEachRemaining(digest::update);
+                            } finally {
+                                DataBufferUtils.release(buffer);
+                            }
+                        })
+                        .then(Mono.fromCallable(() -> HexFormat.of().formatHex(digest.digest()))));
+    }
+
+    private static MessageDigest newDigest() throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256");
+    }
+}
@@ -0,0 +1,88 @@
+package kaspi.lab.processingService.pipeline;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Определяет формат по сигнатуре в начале файла и кладёт его в атрибут DETECTED_TYPE.
+ * Если заявленный тип - один из известных форматов, а сигнатура другая, файл отклоняется.
+ */
+@Component
+public class FormatValidationStage implements ProcessingStage {
+
+    public static final String NAME = "format";
+    public static final String DETECTED_TYPE = "detectedType";
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final Map<String, byte[]> SIGNATURES = Map.of(
+            "image/png", new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'},
+            "image/jpeg", new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF},
+            "image/gif", new byte[]{'G', 'I', 'F', '8'},
+            "application/pdf", new byte[]{'%', 'P', 'D', 'F', '-'},
+            "application/zip", new byte[]{'P', 'K', 0x03, 0x04},
+            "application/gzip", new byte[]{0x1F, (byte) 0x8B});
+
+    @Value("${app.processing.validate-format:true}")
+    private boolean validate;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public StageKind kind() {
+        return StageKind.IO;
+    }
+
+    @Override
+    public Mono<Void> execute(ProcessingContext context) {
+        return Mono.fromCallable(() -> readHeader(context))
+                .flatMap(header -> {
+                    String detected = detect(header);
+                    if (detected != null) {
+                        context.put(DETECTED_TYPE, detected);
+                    }
+
+                    String declared = normalize(context.getEvent().contentType());
+                    if (validate && SIGNATURES.containsKey(declared) && !declared.equals(detected)) {
+                        return Mono.error(new IllegalStateException("File " + context.getEvent().fileId()
+                                + " is declared as " + declared + " but its content is " + (detected != null ? detected : "unknown")));
+                    }
+                    return Mono.<Void>empty();
+                });
+    }
+
+    private byte[] readHeader(ProcessingContext context) throws IOException {
+        try (InputStream in = Files.newInputStream(context.getFile())) {
+            return in.readNBytes(HEADER_SIZE);
+        }
+    }
+
+    private String detect(byte[] header) {
+        for (Map.Entry<String, byte[]> signature : SIGNATURES.entrySet()) {
+            byte[] magic = signature.getValue();
+            if (header.length >= magic.length && Arrays.equals(header, 0, magic.length, magic, 0, magic.length)) {
+                return signature.getKey();
+            }
+        }
+        return null;
+    }
+
+    private String normalize(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        int params = contentType.indexOf(';');
+        return (params >= 0 ? contentType.substring(0, params) : contentType).trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,50 @@
+package kaspi.lab.processingService.pipeline;
+
+import kaspi.lab.eventContract.FileUploadedEvent;
+import kaspi.lab.processingService.service.CompressingUploader;
+import kaspi.lab.processingService.service.ContentAddressedStorage;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.Set;
+
+/**
+ * Загрузка в MinIO - только после того, как файл прошёл проверки. Сами обращения к MinIO
+ * идут на отдельном пуле ProcessingSchedulers.minio().
+ */
+@Component
+@RequiredArgsConstructor
+public class ObjectStorageStage implements ProcessingStage {
+
+    public static final String NAME = "store";
+
+    private final CompressingUploader compressingUploader;
+    private final ContentAddressedStorage contentAddressedStorage;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public StageKind kind() {
+        return StageKind.IO;
+    }
+
+    @Override
+    public Set<String> dependsOn() {
+        return Set.of(ChecksumVerificationStage.NAME, FormatValidationStage.NAME);
+    }
+
+    @Override
+    public Mono<Void> execute(ProcessingContext context) {
+        FileUploadedEvent event = context.getEvent();
+        return (event.contentHash() == null
+                // Хеша нет (например, возобновляемая загрузка) - имя файла в MinIO будет UUID
+                ? compressingUploader.upload(context.getFile(), event.contentType(), event.fileId().toString())
+                : contentAddressedStorage.store(event.fileId(), context.getFile(), event.contentType(), event.contentHash()))
+                .doOnNext(context::setStoredContent)
+                .then();
+    }
+}
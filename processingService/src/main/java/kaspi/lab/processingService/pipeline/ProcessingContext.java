@@ -0,0 +1,37 @@
+package kaspi.lab.processingService.pipeline;
+
+import kaspi.lab.eventContract.FileUploadedEvent;
+import kaspi.lab.processingService.domain.StoredContent;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Состояние обработки одного файла, общее для всех стадий. Стадии пишут в него
+ * из разных потоков, поэтому атрибуты лежат в ConcurrentHashMap.
+ */
+@Getter
+@RequiredArgsConstructor
+public class ProcessingContext {
+
+    private final FileUploadedEvent event;
+    // Временный файл, записанный uploadService
+    private final Path file;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+
+    // Заполняется ObjectStorageStage
+    @Setter
+    private volatile StoredContent storedContent;
+
+    public void put(String key, Object value) {
+        attributes.put(key, value);
+    }
+
+    public <T> T get(String key, Class<T> type) {
+        return type.cast(attributes.get(key));
+    }
+}
@@ -0,0 +1,107 @@
+package kaspi.lab.processingService.pipeline;
+
+import io.micrometer.tracing.Span;
+import kaspi.lab.processingService.metrics.ProcessingMetrics;
+import kaspi.lab.processingService.tracing.EventTracing;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Выполняет стадии обработки файла как граф зависимостей: стадия стартует, когда завершились
+ * все её dependsOn, независимые стадии идут одновременно. CPU-стадии выполняются на
+ * параллельном пуле, IO-стадии - на ограниченном elastic-пуле. Граф проверяется при старте.
+ */
+@Slf4j
+@Component
+public class ProcessingPipeline {
+
+    private final List<ProcessingStage> stages;
+    private final ProcessingSchedulers schedulers;
+    private final ProcessingMetrics processingMetrics;
+    private final EventTracing eventTracing;
+
+    public ProcessingPipeline(
+            List<ProcessingStage> stages,
+            ProcessingSchedulers schedulers,
+            ProcessingMetrics processingMetrics,
+            EventTracing eventTracing) {
+        this.stages = topologicalOrder(stages);
+        this.schedulers = schedulers;
+        this.processingMetrics = processingMetrics;
+        this.eventTracing = eventTracing;
+        log.info("Processing pipeline: {}", this.stages.stream()
+                .map(stage -> stage.name() + "(" + stage.kind() + ")" + (stage.dependsOn().isEmpty() ? "" : " after " + stage.dependsOn()))
+                .toList());
+    }
+
+    public Mono<Void> run(ProcessingContext context, Span span) {
+        return Mono.defer(() -> {
+            // cache(): стадия выполняется один раз, сколько бы зависимых стадий её ни ждали
+            Map<String, Mono<Void>> runs = new HashMap<>();
+            for (ProcessingStage stage : stages) {
+                Mono<Void> dependencies = Mono.when(stage.dependsOn().stream().map(runs::get).toList());
+                runs.put(stage.name(), dependencies.then(execute(stage, context, span)).cache());
+            }
+            return Mono.when(runs.values());
+        });
+    }
+
+    private Mono<Void> execute(ProcessingStage stage, ProcessingContext context, Span span) {
+        Mono<Void> work = Mono.defer(() -> stage.execute(context))
+                .subscribeOn(schedulers.forKind(stage.kind()));
+        return eventTracing.child(span, "stage " + stage.name(),
+                processingMetrics.timeStage(stage.name(), stage.kind(), work));
+    }
+
+    // Алгоритм Кана; неизвестная зависимость или цикл - ошибка конфигурации
+    private static List<ProcessingStage> topologicalOrder(List<ProcessingStage> stages) {
+        Map<String, ProcessingStage> byName = new LinkedHashMap<>();
+        for (ProcessingStage stage : stages) {
+            if (byName.put(stage.name(), stage) != null) {
+                throw new IllegalStateException("Duplicate processing stage: " + stage.name());
+            }
+        }
+
+        Map<String, Integer> pending = new HashMap<>();
+        Map<String, List<ProcessingStage>> dependents = new HashMap<>();
+        for (ProcessingStage stage : stages) {
+            for (String dependency : stage.dependsOn()) {
+                if (!byName.containsKey(dependency)) {
+                    throw new IllegalStateException("Stage " + stage.name() + " depends on unknown stage " + dependency);
+                }
+                dependents.computeIfAbsent(dependency, name -> new ArrayList<>()).add(stage);
+            }
+            pending.put(stage.name(), stage.dependsOn().size());
+        }
+
+        Deque<ProcessingStage> ready = new ArrayDeque<>();
+        byName.values().stream().filter(stage -> stage.dependsOn().isEmpty()).forEach(ready::add);
+        List<ProcessingStage> ordered = new ArrayList<>();
+        while (!ready.isEmpty()) {
+            ProcessingStage stage = ready.poll();
+            ordered.add(stage);
+            for (ProcessingStage dependent : dependents.getOrDefault(stage.name(), List.of())) {
+                if (pending.merge(dependent.name(), -1, Integer::sum) == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        if (ordered.size() != stages.size()) {
+            throw new IllegalStateException("Processing stages have a dependency cycle: " + pending.entrySet().stream()
+                    .filter(entry -> entry.getValue() > 0)
+                    .map(Map.Entry::getKey)
+                    .toList());
+        }
+        return ordered;
+    }
+}
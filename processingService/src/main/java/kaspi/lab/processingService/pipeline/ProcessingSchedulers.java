@@ -0,0 +1,55 @@
+package kaspi.lab.processingService.pipeline;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Раздельные пулы для стадий обработки. У MinIO свой пул, чтобы тяжёлые стадии
+ * не занимали потоки, на которых идут загрузки, и наоборот.
+ */
+@Component
+public class ProcessingSchedulers implements DisposableBean {
+
+    private static final int QUEUED_TASKS = 100_000;
+
+    private final Scheduler cpu;
+    private final Scheduler io;
+    private final Scheduler minio;
+
+    public ProcessingSchedulers(
+            @Value("${app.processing.cpu-threads:0}") int cpuThreads,
+            @Value("${app.processing.io-threads:32}") int ioThreads,
+            @Value("${app.minio.threads:32}") int minioThreads) {
+        // 0 - по числу ядер
+        this.cpu = Schedulers.newParallel("processing-cpu",
+                cpuThreads > 0 ? cpuThreads : Runtime.getRuntime().availableProcessors());
+        this.io = Schedulers.newBoundedElastic(ioThreads, QUEUED_TASKS, "processing-io");
+        this.minio = Schedulers.newBoundedElastic(minioThreads, QUEUED_TASKS, "minio-io");
+    }
+
+    public Scheduler cpu() {
+        return cpu;
+    }
+
+    public Scheduler io() {
+        return io;
+    }
+
+    public Scheduler minio() {
+        return minio;
+    }
+
+    public Scheduler forKind(StageKind kind) {
+        return kind == StageKind.CPU ? cpu : io;
+    }
+
+    @Override
+    public void destroy() {
+        cpu.dispose();
+        io.dispose();
+        minio.dispose();
+    }
+}
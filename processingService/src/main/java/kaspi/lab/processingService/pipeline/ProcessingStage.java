@@ -0,0 +1,29 @@
+package kaspi.lab.processingService.pipeline;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Set;
+
+/**
+ * Шаг обработки файла. Каждый бин-реализация автоматически попадает в ProcessingPipeline.
+ * Стадии без зависимостей друг от друга выполняются одновременно; ошибка любой стадии
+ * переводит файл в FAILED.
+ */
+public interface ProcessingStage {
+
+    // Уникальное имя, на него ссылаются dependsOn других стадий, метрики и trace
+    String name();
+
+    StageKind kind();
+
+    // Стадии, которые должны успешно завершиться до начала этой
+    default Set<String> dependsOn() {
+        return Set.of();
+    }
+
+    /**
+     * Подписка происходит уже на пуле, соответствующем kind(), так что блокирующий
+     * код внутри Mono.fromCallable допустим только у IO-стадий.
+     */
+    Mono<Void> execute(ProcessingContext context);
+}
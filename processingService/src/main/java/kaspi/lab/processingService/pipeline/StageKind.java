@@ -0,0 +1,12 @@
+package kaspi.lab.processingService.pipeline;
+
+/**
+ * На каком пуле выполняется стадия, см. ProcessingSchedulers.
+ */
+public enum StageKind {
+    // Вычисления (хеши, разбор форматов, преобразования): параллельный пул по числу ядер.
+    // Блокирующее чтение файла такая стадия выносит на ProcessingSchedulers.io() сама
+    CPU,
+    // Блокирующий ввод-вывод: ограниченный elastic-пул
+    IO
+}
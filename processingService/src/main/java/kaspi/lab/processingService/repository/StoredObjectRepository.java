@@ -0,0 +1,55 @@
+package kaspi.lab.processingService.repository;
+
+import kaspi.lab.processingService.domain.StoredObjectEntity;
+import org.springframework.data.r2dbc.repository.Query;
+import org.springframework.data.r2dbc.repository.R2dbcRepository;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+public interface StoredObjectRepository extends R2dbcRepository<StoredObjectEntity, String> {
+
+    // Создаёт запись или добавляет ссылку на уже существующий объект; ссылка засчитывается
+    // один раз на файл, поэтому повторная доставка того же события счётчик не меняет
+    @Query("""
+            WITH ref AS (
+                INSERT INTO stored_object_refs (file_id, content_hash) VALUES (:fileId, :contentHash)
+                ON CONFLICT (file_id) DO NOTHING
+                RETURNING file_id
+            )
+            INSERT INTO stored_objects (content_hash, object_name, ref_count, uploaded)
+            VALUES (:contentHash, :objectName, (SELECT count(*) FROM ref)::int, FALSE)
+            ON CONFLICT (content_hash) DO UPDATE SET ref_count = stored_objects.ref_count + EXCLUDED.ref_count
+            RETURNING content_hash, object_name, ref_count, uploaded, content_encoding, original_size
+            """)
+    Mono<StoredObjectEntity> acquire(String contentHash, String objectName, UUID fileId);
+
+    // Отмечает загрузку, только если её ещё никто не отметил; пусто - объект уже записал другой файл
+    @Query("""
+            UPDATE stored_objects
+            SET uploaded = TRUE, object_name = :objectName, content_encoding = :contentEncoding, original_size = :originalSize
+            WHERE content_hash = :contentHash AND NOT uploaded
+            RETURNING content_hash, object_name, ref_count, uploaded, content_encoding, original_size
+            """)
+    Mono<StoredObjectEntity> markUploaded(String contentHash, String objectName, String contentEncoding, Long originalSize);
+
+    // Снимает ссылку файла; если её уже нет (повторный вызов), ничего не возвращает
+    @Query("""
+            WITH ref AS (
+                DELETE FROM stored_object_refs WHERE file_id = :fileId
+                RETURNING content_hash
+            )
+            UPDATE stored_objects s SET ref_count = s.ref_count - 1
+            FROM ref WHERE s.content_hash = ref.content_hash
+            RETURNING s.content_hash, s.object_name, s.ref_count, s.uploaded, s.content_encoding, s.original_size
+            """)
+    Mono<StoredObjectEntity> release(UUID fileId);
+
+    // Удаляет запись только если за это время на объект никто не сослался заново
+    @Query("""
+            DELETE FROM stored_objects
+            WHERE content_hash = :contentHash AND ref_count <= 0
+            RETURNING content_hash, object_name, ref_count, uploaded, content_encoding, original_size
+            """)
+    Mono<StoredObjectEntity> deleteIfUnreferenced(String contentHash);
+}
@@ -0,0 +1,159 @@
+package kaspi.lab.processingService.service;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import kaspi.lab.eventContract.ContentEncodings;
+import kaspi.lab.processingService.domain.StoredContent;
+import kaspi.lab.processingService.metrics.ProcessingMetrics;
+import kaspi.lab.processingService.pipeline.ProcessingSchedulers;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Стадия сжатия перед MinIO. Текстовые типы сжимаются во временный файл рядом с исходным
+ * потоком через буфер BUFFER_SIZE, так что память не зависит от размера файла. Типы не из
+ * списков (картинки, архивы, видео) и файлы, которые почти не сжались, хранятся как есть.
+ * uploadService распаковывает объект при скачивании по files.content_encoding.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CompressingUploader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final MinioService minioService;
+    private final ProcessingMetrics processingMetrics;
+    private final ProcessingSchedulers schedulers;
+
+    @Value("${app.compression.enabled:true}")
+    private boolean enabled;
+
+    // "text/*" совпадает с любым text/..., остальные записи - точно; gzip проверяется первым
+    @Value("${app.compression.gzip-types:}")
+    private List<String> gzipTypes;
+
+    @Value("${app.compression.zstd-types:text/*,application/json,application/xml}")
+    private List<String> zstdTypes;
+
+    @Value("${app.compression.zstd-level:3}")
+    private int zstdLevel;
+
+    // На маленьких файлах выигрыш меньше накладных расходов
+    @Value("${app.compression.min-size:4KB}")
+    private DataSize minSize;
+
+    // Если сжатый файл меньше исходного не хотя бы на эту долю, хранится исходный
+    @Value("${app.compression.min-saving:0.1}")
+    private double minSaving;
+
+    private record Compressed(Path file, String encoding, long originalSize) {}
+
+    /**
+     * Имя объекта получает расширение кодировки (.zst, .gz): одно и то же содержимое, сжатое
+     * по-разному, никогда не попадает под один ключ.
+     */
+    public Mono<StoredContent> upload(Path source, String contentType, String objectName) {
+        // Кодеры zstd/gzip - потоковые, чтение, сжатие и запись идут одним циклом по блокирующим
+        // файловым потокам, поэтому целиком на IO-пуле, а не на параллельном и не на потоках MinIO
+        return Mono.fromCallable(() -> compress(source, contentType))
+                .subscribeOn(schedulers.io())
+                .flatMap(compressed -> minioService.uploadFile(compressed.file(), contentType, objectName + extension(compressed.encoding()))
+                        .map(name -> new StoredContent(name, compressed.encoding(), compressed.originalSize()))
+                        .doFinally(signal -> {
+                            if (compressed.encoding() != null) {
+                                deleteQuietly(compressed.file());
+                            }
+                        }));
+    }
+
+    private Compressed compress(Path source, String contentType) throws IOException {
+        long originalSize = Files.size(source);
+        String encoding = encodingFor(contentType, originalSize);
+        if (encoding == null) {
+            return new Compressed(source, null, originalSize);
+        }
+
+        // Рядом с исходным, чтобы после падения процесса копию нашёл TempFileSweeper в uploadService
+        Path target = source.resolveSibling(ContentEncodings.tempFileName(source.getFileName().toString(), encoding));
+        long start = System.nanoTime();
+        try (InputStream in = Files.newInputStream(source);
+             OutputStream out = encoder(encoding, new BufferedOutputStream(Files.newOutputStream(target), BUFFER_SIZE))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(target);
+            throw e;
+        }
+
+        long compressedSize = Files.size(target);
+        processingMetrics.recordCompression(encoding, originalSize, compressedSize, Duration.ofNanos(System.nanoTime() - start));
+        if (compressedSize > originalSize * (1 - minSaving)) {
+            log.debug("{} compressed to {} of {} bytes, storing uncompressed", source, compressedSize, originalSize);
+            deleteQuietly(target);
+            return new Compressed(source, null, originalSize);
+        }
+        log.info("Compressed {} with {}: {} -> {} bytes", source.getFileName(), encoding, originalSize, compressedSize);
+        return new Compressed(target, encoding, originalSize);
+    }
+
+    private String encodingFor(String contentType, long size) {
+        if (!enabled || contentType == null || size < minSize.toBytes()) {
+            return null;
+        }
+        // "text/plain; charset=utf-8" -> "text/plain"
+        int params = contentType.indexOf(';');
+        String type = (params >= 0 ? contentType.substring(0, params) : contentType).trim().toLowerCase(Locale.ROOT);
+        if (matches(gzipTypes, type)) {
+            return ContentEncodings.GZIP;
+        }
+        return matches(zstdTypes, type) ? ContentEncodings.ZSTD : null;
+    }
+
+    private static String extension(String encoding) {
+        if (encoding == null) {
+            return "";
+        }
+        return ContentEncodings.GZIP.equals(encoding) ? ".gz" : ".zst";
+    }
+
+    private boolean matches(List<String> patterns, String type) {
+        for (String pattern : patterns) {
+            if (pattern.endsWith("/*")
+                    ? type.startsWith(pattern.substring(0, pattern.length() - 1))
+                    : type.equals(pattern)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private OutputStream encoder(String encoding, OutputStream out) throws IOException {
+        return ContentEncodings.GZIP.equals(encoding) ? new GZIPOutputStream(out, BUFFER_SIZE) : new ZstdOutputStream(out, zstdLevel);
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete compressed temp file: {}", path, e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package kaspi.lab.processingService.service;
+
+import kaspi.lab.processingService.domain.StoredContent;
+import kaspi.lab.processingService.domain.StoredObjectEntity;
+import kaspi.lab.processingService.repository.StoredObjectRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Хранение по хешу содержимого: одинаковые файлы лежат в MinIO одним объектом,
+ * а stored_objects считает, сколько записей files на него ссылается.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ContentAddressedStorage {
+
+    private static final String OBJECT_PREFIX = "content/";
+
+    private final MinioService minioService;
+    private final CompressingUploader compressingUploader;
+    private final StoredObjectRepository storedObjectRepository;
+
+    // Возвращает объект в MinIO, на который теперь ссылается файл, и то, как он сжат
+    public Mono<StoredContent> store(UUID fileId, Path filePath, String contentType, String contentHash) {
+        return storedObjectRepository.acquire(contentHash, OBJECT_PREFIX + contentHash, fileId)
+                .flatMap(stored -> {
+                    if (stored.isUploaded()) {
+                        log.info("Content {} already stored as {}, skipping upload", contentHash, stored.getObjectName());
+                        return Mono.just(new StoredContent(stored.getObjectName(), stored.getContentEncoding(), stored.getOriginalSize()));
+                    }
+
+                    // Сжатие зависит от contentType файла, поэтому параллельные первые загрузки одного
+                    // содержимого могут дать разные байты; кодировка входит в имя объекта, и они не затирают
+                    // друг друга. В stored_objects остаётся объект того, кто отметился первым
+                    return compressingUploader.upload(filePath, contentType, stored.getObjectName())
+                            .flatMap(content -> storedObjectRepository
+                                    .markUploaded(contentHash, content.objectName(), content.contentEncoding(), content.originalSize())
+                                    .map(ignored -> content)
+                                    .switchIfEmpty(Mono.defer(() -> adoptStored(contentHash, content))))
+                            // Файл не будет ссылаться на объект, которого нет - ссылку отдаём сразу
+                            .onErrorResume(err -> release(fileId).then(Mono.error(err)));
+                });
+    }
+
+    // Содержимое уже записал и отметил другой файл: ссылаемся на его объект, а свой убираем, если он другой
+    private Mono<StoredContent> adoptStored(String contentHash, StoredContent own) {
+        return storedObjectRepository.findById(contentHash)
+                .switchIfEmpty(Mono.error(new IllegalStateException("Stored object " + contentHash + " disappeared")))
+                .flatMap(stored -> {
+                    StoredContent winner = new StoredContent(stored.getObjectName(), stored.getContentEncoding(), stored.getOriginalSize());
+                    if (winner.objectName().equals(own.objectName())) {
+                        return Mono.just(winner);
+                    }
+                    log.info("Content {} was stored as {} concurrently, removing {}", contentHash, winner.objectName(), own.objectName());
+                    return minioService.deleteObject(own.objectName()).thenReturn(winner);
+                });
+    }
+
+    // Снимает ссылку файла; объект удаляется из MinIO, когда ссылок не осталось
+    public Mono<Void> release(UUID fileId) {
+        return storedObjectRepository.release(fileId)
+                .filter(stored -> stored.getRefCount() <= 0)
+                .flatMap(stored -> storedObjectRepository.deleteIfUnreferenced(stored.getContentHash()))
+                .filter(StoredObjectEntity::isUploaded)
+                .flatMap(deleted -> {
+                    log.info("Last reference to {} released, removing object", deleted.getObjectName());
+                    return minioService.deleteObject(deleted.getObjectName());
+                });
+    }
+}
@@ -0,0 +1,115 @@
+package kaspi.lab.processingService.service;
+
+import kaspi.lab.eventContract.FileStatusNotifications;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Копит изменения статусов за короткое окно и пишет их одним
+ * UPDATE ... FROM (VALUES ...). Каждый вызывающий получает свой Mono,
+ * который завершается только после коммита его пачки. Об изменённых строках
+ * сообщается через NOTIFY {@link FileStatusNotifications#CHANNEL} с payload "id:status".
+ */
+@Slf4j
+@Service
+public class FileStatusWriter implements DisposableBean {
+
+    private record StatusUpdate(UUID id, String status, String storagePath, String contentEncoding, Long originalSize,
+                                Sinks.Empty<Void> done) {}
+
+    private final DatabaseClient databaseClient;
+    private final Sinks.Many<StatusUpdate> updates = Sinks.many().unicast().onBackpressureBuffer();
+    private final Disposable subscription;
+
+    public FileStatusWriter(
+            DatabaseClient databaseClient,
+            @Value("${app.processing.status-batch-size:256}") int batchSize,
+            @Value("${app.processing.status-flush-interval:20ms}") Duration flushInterval) {
+        this.databaseClient = databaseClient;
+        this.subscription = updates.asFlux()
+                .bufferTimeout(batchSize, flushInterval, true)
+                .concatMap(this::flush)
+                .subscribe();
+    }
+
+    public Mono<Void> markCompleted(UUID id, String storagePath, String contentEncoding, Long originalSize) {
+        return enqueue(id, "COMPLETED", storagePath, contentEncoding, originalSize);
+    }
+
+    public Mono<Void> markFailed(UUID id) {
+        return enqueue(id, "FAILED", null, null, null);
+    }
+
+    private Mono<Void> enqueue(UUID id, String status, String storagePath, String contentEncoding, Long originalSize) {
+        return Mono.defer(() -> {
+            Sinks.Empty<Void> done = Sinks.empty();
+            // emitNext зовётся из разных потоков, busyLooping переживает FAIL_NON_SERIALIZED
+            updates.emitNext(new StatusUpdate(id, status, storagePath, contentEncoding, originalSize, done),
+                    Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+            return done.asMono();
+        });
+    }
+
+    private Mono<Void> flush(List<StatusUpdate> batch) {
+        // В одном UPDATE ... FROM строка не должна совпасть дважды - оставляем последний статус по id
+        Map<UUID, StatusUpdate> latest = new LinkedHashMap<>();
+        batch.forEach(update -> latest.put(update.id(), update));
+        List<StatusUpdate> rows = new ArrayList<>(latest.values());
+
+        StringBuilder sql = new StringBuilder("WITH updated AS (UPDATE files AS f SET status = v.status, ")
+                .append("storage_path = COALESCE(v.storage_path, f.storage_path), ")
+                .append("content_encoding = COALESCE(v.content_encoding, f.content_encoding), ")
+                .append("original_size = COALESCE(v.original_size, f.original_size) FROM (VALUES ");
+        for (int i = 0; i < rows.size(); i++) {
+            int p = i * 5;
+            sql.append(i == 0 ? "" : ", ")
+                    .append("($").append(p + 1).append("::uuid, $").append(p + 2)
+                    .append("::varchar, $").append(p + 3).append("::varchar, $").append(p + 4)
+                    .append("::varchar, $").append(p + 5).append("::bigint)");
+        }
+        // FAILED никогда не перетирает COMPLETED (например, при повторной доставке события)
+        sql.append(") AS v(id, status, storage_path, content_encoding, original_size) WHERE f.id = v.id ")
+                .append("AND NOT (f.status = 'COMPLETED' AND v.status = 'FAILED') RETURNING f.id, f.status) ")
+                // uploadService слушает канал, чтобы сбросить кэш статусов и отправить SSE
+                .append("SELECT pg_notify('").append(FileStatusNotifications.CHANNEL).append("', id::text || ':' || status) FROM updated");
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int i = 0; i < rows.size(); i++) {
+            StatusUpdate row = rows.get(i);
+            int p = i * 5;
+            spec = spec.bind(p, row.id()).bind(p + 1, row.status());
+            spec = row.storagePath() != null ? spec.bind(p + 2, row.storagePath()) : spec.bindNull(p + 2, String.class);
+            spec = row.contentEncoding() != null ? spec.bind(p + 3, row.contentEncoding()) : spec.bindNull(p + 3, String.class);
+            spec = row.originalSize() != null ? spec.bind(p + 4, row.originalSize()) : spec.bindNull(p + 4, Long.class);
+        }
+
+        return spec.then()
+                .doOnSuccess(ignored -> {
+                    log.debug("Flushed {} status updates", rows.size());
+                    batch.forEach(update -> update.done().tryEmitEmpty());
+                })
+                .onErrorResume(err -> {
+                    log.error("Failed to flush {} status updates", rows.size(), err);
+                    batch.forEach(update -> update.done().tryEmitError(err));
+                    return Mono.empty();
+                });
+    }
+
+    @Override
+    public void destroy() {
+        subscription.dispose();
+    }
+}
@@ -3,46 +3,167 @@ package kaspi.lab.processingService.service;
 import io.minio.BucketExistsArgs;
 import io.minio.MakeBucketArgs;
 import io.minio.MinioClient;
+import io.minio.RemoveObjectArgs;
 import io.minio.UploadObjectArgs;
+import io.minio.messages.Part;
+import kaspi.lab.processingService.metrics.ProcessingMetrics;
+import kaspi.lab.processingService.pipeline.ProcessingSchedulers;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class MinioService {
 
+    // Ограничения S3: часть не меньше 5 MiB, частей не больше 10000
+    private static final long MIN_PART_SIZE = DataSize.ofMegabytes(5).toBytes();
+    private static final int MAX_PARTS = 10_000;
+
     private final MinioClient minioClient;
+    private final MultipartMinioClient multipartClient;
+    private final ProcessingMetrics processingMetrics;
+    private final ProcessingSchedulers schedulers;
+    private final PartMemoryBudget partMemoryBudget;
 
     @Value("${app.minio.bucket:uploads}")
     private String bucket;
 
+    // Файлы меньше порога уходят одним PUT
+    @Value("${app.minio.multipart-threshold:64MB}")
+    private DataSize multipartThreshold;
+
+    @Value("${app.minio.part-size:16MB}")
+    private DataSize partSize;
+
+    // В памяти одновременно не больше upload-concurrency частей одного файла,
+    // а всех файлов вместе - не больше app.minio.max-buffered-bytes (PartMemoryBudget)
+    @Value("${app.minio.upload-concurrency:4}")
+    private int uploadConcurrency;
+
+    private volatile boolean bucketReady;
+
     // Метод возвращает Mono<String> - это будет путь к файлу в MinIO
     public Mono<String> uploadFile(Path filePath, String contentType, String objectName) {
         return Mono.fromCallable(() -> {
-            // 1. Проверяем, есть ли бакет, если нет - создаем
-            boolean found = minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucket).build());
-            if (!found) {
-                minioClient.makeBucket(MakeBucketArgs.builder().bucket(bucket).build());
-            }
+                    ensureBucket();
+                    return Files.size(filePath);
+                })
+                .subscribeOn(schedulers.minio()) // Выполняем в отдельном пуле потоков
+                .flatMap(size -> {
+                    log.info("Uploading file to MinIO: bucket={}, object={}, size={}", bucket, objectName, size);
+                    long start = System.nanoTime();
+                    return (size < multipartThreshold.toBytes()
+                            ? putSingle(filePath, contentType, objectName)
+                            : putMultipart(filePath, size, contentType, objectName))
+                            .doOnSuccess(ignored -> processingMetrics.recordMinioUpload(size, Duration.ofNanos(System.nanoTime() - start)));
+                })
+                .thenReturn(objectName);
+    }
 
-            // 2. Загружаем файл
-            log.info("Uploading file to MinIO: bucket={}, object={}", bucket, objectName);
-            minioClient.uploadObject(
-                    UploadObjectArgs.builder()
+    public Mono<Void> deleteObject(String objectName) {
+        return Mono.fromCallable(() -> {
+            minioClient.removeObject(
+                    RemoveObjectArgs.builder()
                             .bucket(bucket)
-                            .object(objectName) // Имя файла в MinIO (обычно UUID)
-                            .filename(filePath.toString()) // Путь к файлу на диске
-                            .contentType(contentType)
+                            .object(objectName)
                             .build());
-
             return objectName;
-        }).subscribeOn(Schedulers.boundedElastic()); // Выполняем в отдельном пуле потоков
+        }).subscribeOn(schedulers.minio()).then();
+    }
+
+    private Mono<Void> putSingle(Path filePath, String contentType, String objectName) {
+        return Mono.fromCallable(() -> minioClient.uploadObject(
+                        UploadObjectArgs.builder()
+                                .bucket(bucket)
+                                .object(objectName) // Имя файла в MinIO (обычно UUID)
+                                .filename(filePath.toString()) // Путь к файлу на диске
+                                .contentType(contentType)
+                                .build()))
+                .subscribeOn(schedulers.minio())
+                .then();
+    }
+
+    /**
+     * Части читаются позиционным FileChannel.read, поэтому несколько частей одного файла
+     * читаются и отправляются параллельно без общей позиции в канале.
+     */
+    private Mono<Void> putMultipart(Path filePath, long size, String contentType, String objectName) {
+        long effectivePartSize = Math.max(Math.max(partSize.toBytes(), MIN_PART_SIZE), (size + MAX_PARTS - 1) / MAX_PARTS);
+        int partCount = (int) ((size + effectivePartSize - 1) / effectivePartSize);
+
+        return Mono.fromFuture(() -> multipartClient.initiateUpload(bucket, objectName, contentType))
+                .flatMap(uploadId -> Mono.using(
+                                () -> FileChannel.open(filePath, StandardOpenOption.READ),
+                                channel -> Flux.range(1, partCount)
+                                        .flatMapSequential(partNumber -> uploadPart(channel, objectName, uploadId, partNumber, effectivePartSize, size), uploadConcurrency)
+                                        .collectList()
+                                        .flatMap(parts -> Mono.fromFuture(() -> multipartClient.finishUpload(bucket, objectName, uploadId, parts.toArray(Part[]::new)))),
+                                this::closeQuietly)
+                        .onErrorResume(err -> {
+                            log.warn("Aborting multipart upload {} for object {}", uploadId, objectName);
+                            return Mono.fromFuture(() -> multipartClient.abortUpload(bucket, objectName, uploadId))
+                                    .onErrorResume(abortErr -> Mono.empty())
+                                    .then(Mono.error(err));
+                        }))
+                .doOnSuccess(ignored -> log.info("Multipart upload of {} finished: {} parts", objectName, partCount));
+    }
+
+    private Mono<Part> uploadPart(FileChannel channel, String objectName, String uploadId, int partNumber, long partSize, long size) {
+        long position = (partNumber - 1) * partSize;
+        int length = (int) Math.min(partSize, size - position);
+
+        // Место под часть занимается до чтения и возвращается, когда MinIO её принял
+        return Mono.usingWhen(
+                partMemoryBudget.reserve(length),
+                reserved -> Mono.fromCallable(() -> readPart(channel, position, length))
+                        .subscribeOn(schedulers.minio())
+                        .flatMap(data -> Mono.fromFuture(() -> multipartClient.putPart(bucket, objectName, uploadId, partNumber, data))),
+                reserved -> Mono.fromRunnable(() -> partMemoryBudget.release(reserved)));
+    }
+
+    private byte[] readPart(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        return buffer.array();
+    }
+
+    // Бакет проверяется один раз за жизнь сервиса, а не на каждый файл
+    private void ensureBucket() throws Exception {
+        if (bucketReady) {
+            return;
+        }
+        // 1. Проверяем, есть ли бакет, если нет - создаем
+        boolean found = minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucket).build());
+        if (!found) {
+            minioClient.makeBucket(MakeBucketArgs.builder().bucket(bucket).build());
+        }
+        bucketReady = true;
+    }
+
+    private void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close file channel", e);
+        }
     }
-}
\ No newline at end of file
+}
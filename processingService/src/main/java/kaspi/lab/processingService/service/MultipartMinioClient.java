@@ -0,0 +1,57 @@
+package kaspi.lab.processingService.service;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.MinioAsyncClient;
+import io.minio.messages.Part;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Открывает низкоуровневые вызовы S3 multipart upload, которые в MinioAsyncClient protected.
+ * Через них MinioService сам режет файл на части и грузит их параллельно.
+ */
+public class MultipartMinioClient extends MinioAsyncClient {
+
+    public MultipartMinioClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    public CompletableFuture<String> initiateUpload(String bucket, String objectName, String contentType) {
+        try {
+            Multimap<String, String> headers = HashMultimap.create();
+            headers.put("Content-Type", contentType);
+            return createMultipartUploadAsync(bucket, null, objectName, headers, null)
+                    .thenApply(response -> response.result().uploadId());
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<Part> putPart(String bucket, String objectName, String uploadId, int partNumber, byte[] data) {
+        try {
+            return uploadPartAsync(bucket, null, objectName, data, data.length, uploadId, partNumber, null, null)
+                    .thenApply(response -> new Part(partNumber, response.etag()));
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<Void> finishUpload(String bucket, String objectName, String uploadId, Part[] parts) {
+        try {
+            return completeMultipartUploadAsync(bucket, null, objectName, uploadId, parts, null, null)
+                    .thenApply(response -> null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    public CompletableFuture<Void> abortUpload(String bucket, String objectName, String uploadId) {
+        try {
+            return abortMultipartUploadAsync(bucket, null, objectName, uploadId, null, null)
+                    .thenApply(response -> null);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
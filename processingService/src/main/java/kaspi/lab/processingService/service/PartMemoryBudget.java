@@ -0,0 +1,96 @@
+package kaspi.lab.processingService.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Общий на инстанс лимит байт частей multipart, которые одновременно лежат в памяти.
+ * upload-concurrency ограничивает части одного файла, а файлов в работе может быть много;
+ * здесь они стоят в одной очереди. Ожидание неблокирующее: Mono завершается, когда место
+ * освободится, и ни один поток пула не простаивает в ожидании.
+ */
+@Component
+public class PartMemoryBudget {
+
+    private static final class Waiter {
+        final long bytes;
+        final MonoSink<Long> sink;
+        boolean granted;
+
+        Waiter(long bytes, MonoSink<Long> sink) {
+            this.bytes = bytes;
+            this.sink = sink;
+        }
+    }
+
+    private final long limit;
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+    private long used;
+
+    public PartMemoryBudget(@Value("${app.minio.max-buffered-bytes:256MB}") DataSize limit) {
+        this.limit = limit.toBytes();
+    }
+
+    /**
+     * Занимает bytes и отдаёт занятый объём; его нужно вернуть через release(). Часть больше
+     * всего лимита занимает весь лимит, иначе она не прошла бы никогда. Очередь FIFO, чтобы
+     * большие части не голодали за маленькими.
+     */
+    public Mono<Long> reserve(long bytes) {
+        long reserved = Math.min(bytes, limit);
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(reserved, sink);
+            boolean granted;
+            synchronized (this) {
+                granted = waiters.isEmpty() && used + reserved <= limit;
+                if (granted) {
+                    used += reserved;
+                    waiter.granted = true;
+                } else {
+                    waiters.addLast(waiter);
+                }
+            }
+            sink.onCancel(() -> cancel(waiter));
+            if (granted) {
+                sink.success(reserved);
+            }
+        });
+    }
+
+    public void release(long reserved) {
+        List<Waiter> ready = new ArrayList<>();
+        synchronized (this) {
+            used -= reserved;
+            while (!waiters.isEmpty() && used + waiters.peekFirst().bytes <= limit) {
+                Waiter next = waiters.pollFirst();
+                used += next.bytes;
+                next.granted = true;
+                ready.add(next);
+            }
+        }
+        // Вне лока: подписчик продолжит работу прямо в success()
+        ready.forEach(waiter -> waiter.sink.success(waiter.bytes));
+    }
+
+    // Отмена после выдачи означает, что success() до подписчика не дошёл - место возвращаем
+    private void cancel(Waiter waiter) {
+        boolean granted;
+        synchronized (this) {
+            granted = waiter.granted;
+            if (!granted) {
+                waiters.remove(waiter);
+            }
+        }
+        if (granted) {
+            release(waiter.bytes);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package kaspi.lab.processingService.tracing;
+
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import io.micrometer.tracing.propagation.Propagator;
+import lombok.RequiredArgsConstructor;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Продолжает trace загрузки: OutboxRelay в uploadService кладёт traceparent в заголовки
+ * записи Kafka, обработка события становится его дочерним span'ом.
+ */
+@Component
+@RequiredArgsConstructor
+public class EventTracing {
+
+    private static final Propagator.Getter<Headers> HEADERS = (headers, key) -> {
+        Header header = headers.lastHeader(key);
+        return header != null ? new String(header.value(), StandardCharsets.UTF_8) : null;
+    };
+
+    private final Tracer tracer;
+    private final Propagator propagator;
+
+    // Без заголовка (события, отправленные до появления трассировки) начинается новый trace
+    public Span startProcessing(ConsumerRecord<String, byte[]> record) {
+        return propagator.extract(record.headers(), HEADERS)
+                .name("file process")
+                .kind(Span.Kind.CONSUMER)
+                .tag("kafka.partition", String.valueOf(record.partition()))
+                .tag("kafka.offset", String.valueOf(record.offset()))
+                .start();
+    }
+
+    /**
+     * Оборачивает этап обработки в дочерний span, который закрывается вместе с action.
+     */
+    public <T> Mono<T> child(Span parent, String name, Mono<T> action) {
+        return Mono.defer(() -> {
+            Span span = tracer.nextSpan(parent).name(name).start();
+            return action
+                    .doOnError(span::error)
+                    .doFinally(signal -> span.end());
+        });
+    }
+}
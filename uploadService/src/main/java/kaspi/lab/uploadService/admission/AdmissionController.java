@@ -0,0 +1,124 @@
+package kaspi.lab.uploadService.admission;
+
+import jakarta.annotation.PostConstruct;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.config.UploadMode;
+import kaspi.lab.uploadService.metrics.UploadMetrics;
+import kaspi.lab.uploadService.repository.OutboxRepository;
+import kaspi.lab.uploadService.service.TempStorageManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Решает, принимать ли загрузку. Лимиты на число загрузок и байт в приёме проверяются
+ * атомарно на каждый запрос; свободное место во временном хранилище и хвост outbox
+ * снимаются по расписанию, чтобы на горячем пути не было ни statfs, ни запросов в БД.
+ * Retry-After оценивается по тому, как быстро освобождается ресурс, упёршийся в лимит.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AdmissionController {
+
+    // Вес нового замера в скользящих средних
+    private static final double ALPHA = 0.2;
+
+    private final AppUploadProperties props;
+    private final TempStorageManager tempStorageManager;
+    private final OutboxRepository outboxRepository;
+    private final UploadMetrics uploadMetrics;
+
+    @Value("${app.upload.admission-refresh-interval:1000}")
+    private long refreshInterval;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    private volatile long tempAvailable = Long.MAX_VALUE;
+    private volatile long outboxBacklog;
+    // Событий outbox в секунду, отправляемых relay
+    private volatile double relayRate;
+    private volatile double avgUploadSeconds = 1;
+    private long lastRelayed;
+
+    /**
+     * Результат проверки. Если admitted, вызывающий обязан вернуть ресурсы через release().
+     */
+    public record Admission(boolean admitted, long bytes, String reason, long retryAfterSeconds) {}
+
+    @PostConstruct
+    void init() {
+        uploadMetrics.registerAdmission(inFlight, inFlightBytes);
+    }
+
+    public Admission tryAcquire(long contentLength) {
+        long bytes = contentLength >= 0 ? contentLength : props.getAdmissionUnknownSize().toBytes();
+
+        // В режиме stream временный каталог не используется
+        if (props.getMode() == UploadMode.DISK && tempAvailable < bytes) {
+            return reject("temp_space", props.getAdmissionMaxRetryAfter());
+        }
+        long backlog = outboxBacklog;
+        if (backlog > props.getAdmissionMaxOutboxBacklog()) {
+            double excess = backlog - props.getAdmissionMaxOutboxBacklog();
+            return reject("outbox_backlog", relayRate > 0 ? excess / relayRate : props.getAdmissionMaxRetryAfter());
+        }
+
+        int uploads = inFlight.incrementAndGet();
+        if (uploads > props.getAdmissionMaxInFlight()) {
+            inFlight.decrementAndGet();
+            // При полной загрузке слот освободится примерно через среднее время одной загрузки
+            return reject("in_flight", avgUploadSeconds * uploads / props.getAdmissionMaxInFlight());
+        }
+        long maxBytes = props.getAdmissionMaxInFlightBytes().toBytes();
+        long total = inFlightBytes.addAndGet(bytes);
+        // Файл больше всего лимита всё же пропускаем, когда кроме него ничего не принимается
+        if (total > maxBytes && total != bytes) {
+            inFlight.decrementAndGet();
+            inFlightBytes.addAndGet(-bytes);
+            return reject("in_flight_bytes", avgUploadSeconds * total / maxBytes);
+        }
+        return new Admission(true, bytes, null, 0);
+    }
+
+    public void release(Admission admission, Duration elapsed) {
+        inFlight.decrementAndGet();
+        inFlightBytes.addAndGet(-admission.bytes());
+        avgUploadSeconds = avgUploadSeconds * (1 - ALPHA) + elapsed.toNanos() / 1e9 * ALPHA;
+    }
+
+    @Scheduled(fixedDelayString = "${app.upload.admission-refresh-interval:1000}")
+    public void refresh() {
+        try {
+            tempAvailable = tempStorageManager.maxAvailable();
+        } catch (IOException e) {
+            log.warn("Could not read temp storage free space", e);
+        }
+
+        long relayed = uploadMetrics.relayedEvents();
+        double rate = (relayed - lastRelayed) * 1000.0 / refreshInterval;
+        lastRelayed = relayed;
+        relayRate = relayRate * (1 - ALPHA) + rate * ALPHA;
+
+        outboxRepository.countNew()
+                .subscribe(count -> outboxBacklog = count,
+                        err -> log.warn("Could not refresh outbox backlog for admission control", err));
+    }
+
+    private Admission reject(String reason, double seconds) {
+        uploadMetrics.recordAdmissionRejected(reason);
+        // Разброс до +50%, чтобы отклонённые клиенты не вернулись все в одну секунду
+        double jittered = seconds * (1 + ThreadLocalRandom.current().nextDouble(0.5));
+        long retryAfter = Math.max(1, Math.min(props.getAdmissionMaxRetryAfter(), (long) Math.ceil(jittered)));
+        return new Admission(false, 0, reason, retryAfter);
+    }
+}
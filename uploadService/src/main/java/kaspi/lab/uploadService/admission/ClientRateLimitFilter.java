@@ -0,0 +1,127 @@
+package kaspi.lab.uploadService.admission;
+
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * Квоты клиента на загрузки. Стоит перед UploadAdmissionFilter: клиент сверх своей квоты
+ * получает 429 раньше, чем займёт общие слоты admission control.
+ *
+ * Клиент - аутентифицированный пользователь, если он есть. Иначе заголовок X-Client-Id,
+ * но только от прокси из rate-limit-trusted-proxies: прокси ставит его после своей проверки.
+ * От остальных заголовок игнорируется - иначе, меняя его на каждом запросе, можно было бы
+ * каждый раз получать новую корзину - и клиент считается по адресу.
+ */
+@Slf4j
+@Component
+public class ClientRateLimitFilter implements WebFilter, Ordered {
+
+    public static final String CLIENT_ID_HEADER = "X-Client-Id";
+    private static final int MAX_CLIENT_ID_LENGTH = 64;
+
+    // Адрес или подсеть в нотации CIDR
+    record Network(byte[] address, int prefixLength) {
+
+        static Network parse(String value) {
+            String[] parts = value.strip().split("/", 2);
+            try {
+                byte[] address = InetAddress.getByName(parts[0]).getAddress();
+                int prefixLength = parts.length == 2 ? Integer.parseInt(parts[1]) : address.length * 8;
+                if (prefixLength < 0 || prefixLength > address.length * 8) {
+                    throw new IllegalArgumentException("Bad prefix length in " + value);
+                }
+                return new Network(address, prefixLength);
+            } catch (UnknownHostException | NumberFormatException e) {
+                throw new IllegalArgumentException("Bad trusted proxy address: " + value, e);
+            }
+        }
+
+        boolean contains(InetAddress candidate) {
+            byte[] other = candidate.getAddress();
+            if (other.length != address.length) {
+                return false;
+            }
+            int full = prefixLength / 8;
+            for (int i = 0; i < full; i++) {
+                if (other[i] != address[i]) {
+                    return false;
+                }
+            }
+            int rest = prefixLength % 8;
+            if (rest == 0) {
+                return true;
+            }
+            int mask = 0xFF << (8 - rest);
+            return (other[full] & mask) == (address[full] & mask);
+        }
+    }
+
+    private final ClientRateLimiter rateLimiter;
+    private final List<Network> trustedProxies;
+
+    public ClientRateLimitFilter(ClientRateLimiter rateLimiter, AppUploadProperties props) {
+        this.rateLimiter = rateLimiter;
+        this.trustedProxies = props.getRateLimitTrustedProxies().stream().map(Network::parse).toList();
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (!UploadAdmissionFilter.carriesUpload(request)) {
+            return chain.filter(exchange);
+        }
+
+        return exchange.getPrincipal()
+                .map(principal -> "user:" + truncate(principal.getName()))
+                .switchIfEmpty(Mono.fromSupplier(() -> clientId(request)))
+                .flatMap(clientId -> rateLimiter.tryAcquire(clientId, request.getHeaders().getContentLength())
+                        .flatMap(decision -> {
+                            if (decision.allowed()) {
+                                return chain.filter(exchange);
+                            }
+                            log.debug("Throttled client {} on {} quota, retry after {}s",
+                                    clientId, decision.quota(), decision.retryAfterSeconds());
+                            exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+                            exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(decision.retryAfterSeconds()));
+                            return exchange.getResponse().setComplete();
+                        }));
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE + 5;
+    }
+
+    private String clientId(ServerHttpRequest request) {
+        InetSocketAddress remote = request.getRemoteAddress();
+        if (remote == null || remote.getAddress() == null) {
+            return "anonymous";
+        }
+        InetAddress address = remote.getAddress();
+        String header = request.getHeaders().getFirst(CLIENT_ID_HEADER);
+        if (StringUtils.hasText(header) && trustedProxies.stream().anyMatch(proxy -> proxy.contains(address))) {
+            return "id:" + truncate(header.strip());
+        }
+        return "ip:" + address.getHostAddress();
+    }
+
+    // Длинный идентификатор обрезается, чтобы не раздувать ключи Redis
+    private static String truncate(String id) {
+        return id.length() > MAX_CLIENT_ID_LENGTH ? id.substring(0, MAX_CLIENT_ID_LENGTH) : id;
+    }
+}
@@ -0,0 +1,197 @@
+package kaspi.lab.uploadService.admission;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.metrics.UploadMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Квоты на клиента: две корзины токенов (запросы и байты), общие для всех узлов и хранящиеся в Redis.
+ * Узел не ходит в Redis на каждый запрос, а забирает из корзины пачку токенов и расходует её
+ * локально; остаток пачки сгорает через rate-limit-lease-ttl, поэтому квота клиента не может
+ * надолго застрять на одном узле. Клиент, исчерпавший квоту, получает отказ, остальных он не задевает.
+ */
+@Slf4j
+@Component
+public class ClientRateLimiter {
+
+    private static final String BUCKET_PREFIX = "rate-limit:";
+
+    // Пополняет корзину по времени Redis (часы узлов не участвуют) и выдаёт сколько есть, но не больше запрошенного.
+    // KEYS[1] - корзина; ARGV: скорость в токенах/с, ёмкость, сколько токенов нужно
+    private static final RedisScript<Long> LEASE_SCRIPT = RedisScript.of("""
+            local rate = tonumber(ARGV[1])
+            local burst = tonumber(ARGV[2])
+            local wanted = tonumber(ARGV[3])
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+            local bucket = redis.call('HMGET', KEYS[1], 'tokens', 'ts')
+            local tokens = tonumber(bucket[1]) or burst
+            local ts = tonumber(bucket[2]) or now
+            tokens = math.min(burst, tokens + math.max(0, now - ts) * rate / 1000)
+            local granted = math.min(wanted, math.floor(tokens))
+            redis.call('HSET', KEYS[1], 'tokens', tostring(tokens - granted), 'ts', tostring(now))
+            redis.call('PEXPIRE', KEYS[1], math.ceil(burst / rate * 1000) + 1000)
+            return granted
+            """, Long.class);
+
+    public record Decision(boolean allowed, String quota, long retryAfterSeconds) {
+        static final Decision ALLOWED = new Decision(true, null, 0);
+    }
+
+    private enum Quota {
+        REQUESTS("requests"), BYTES("bytes");
+
+        private final String tag;
+
+        Quota(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private record BucketKey(String clientId, Quota quota) {}
+
+    // Пачка токенов, выданная узлу; tryTake возвращает, сколько не хватило (0 - токены списаны)
+    static final class LocalLease {
+        private long tokens;
+        private long expiresAt;
+
+        synchronized long tryTake(long wanted, long now) {
+            if (now - expiresAt > 0) {
+                tokens = 0;
+            }
+            if (tokens >= wanted) {
+                tokens -= wanted;
+                return 0;
+            }
+            return wanted - tokens;
+        }
+
+        // Возврат неизрасходованного; в сгоревшую пачку не возвращается ничего
+        synchronized void refund(long unused, long now) {
+            if (now - expiresAt <= 0) {
+                tokens += unused;
+            }
+        }
+
+        synchronized void add(long granted, long now, long ttlNanos) {
+            if (now - expiresAt > 0) {
+                tokens = 0;
+            }
+            tokens += granted;
+            expiresAt = now + ttlNanos;
+        }
+    }
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final UploadMetrics uploadMetrics;
+    private final boolean enabled;
+    private final long requestRate;
+    private final long requestBurst;
+    private final long requestLease;
+    private final long bytesRate;
+    private final long bytesBurst;
+    private final long bytesLease;
+    private final long leaseTtlNanos;
+    private final long maxRetryAfter;
+    private final Cache<BucketKey, LocalLease> leases;
+
+    public ClientRateLimiter(
+            AppUploadProperties props,
+            ReactiveStringRedisTemplate redisTemplate,
+            UploadMetrics uploadMetrics) {
+        this.redisTemplate = redisTemplate;
+        this.uploadMetrics = uploadMetrics;
+        this.enabled = props.isRateLimitEnabled();
+        this.requestRate = props.getRateLimitRequestsPerSecond();
+        this.requestBurst = Math.max(props.getRateLimitRequestBurst(), requestRate);
+        this.requestLease = Math.min(props.getRateLimitRequestLease(), requestBurst);
+        this.bytesRate = props.getRateLimitBytesPerSecond().toBytes();
+        this.bytesBurst = Math.max(props.getRateLimitBytesBurst().toBytes(), bytesRate);
+        this.bytesLease = Math.min(props.getRateLimitBytesLease().toBytes(), bytesBurst);
+        this.leaseTtlNanos = props.getRateLimitLeaseTtl().toNanos();
+        this.maxRetryAfter = props.getAdmissionMaxRetryAfter();
+        Duration idle = props.getRateLimitLeaseTtl().multipliedBy(10);
+        this.leases = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterAccess(idle)
+                .build();
+    }
+
+    /**
+     * Списывает с клиента один запрос и contentLength байт. Запрос без Content-Length
+     * оплачивает только квоту запросов: его размер до чтения тела неизвестен.
+     */
+    public Mono<Decision> tryAcquire(String clientId, long contentLength) {
+        if (!enabled) {
+            return Mono.just(Decision.ALLOWED);
+        }
+        return acquire(clientId, Quota.REQUESTS, 1)
+                .flatMap(decision -> decision.allowed() && contentLength > 0
+                        // Файл больше ёмкости корзины иначе не прошёл бы никогда - берём с него всю ёмкость
+                        ? acquire(clientId, Quota.BYTES, Math.min(contentLength, bytesBurst))
+                                // Запрос не пропущен - списанный за него токен запросов возвращается
+                                .doOnNext(bytes -> {
+                                    if (!bytes.allowed()) {
+                                        lease(clientId, Quota.REQUESTS).refund(1, System.nanoTime());
+                                    }
+                                })
+                        : Mono.just(decision));
+    }
+
+    private Mono<Decision> acquire(String clientId, Quota quota, long wanted) {
+        LocalLease lease = lease(clientId, quota);
+        if (lease.tryTake(wanted, System.nanoTime()) == 0) {
+            return Mono.just(Decision.ALLOWED);
+        }
+
+        long batch = Math.max(wanted, quota == Quota.REQUESTS ? requestLease : bytesLease);
+        return leaseFromRedis(clientId, quota, batch)
+                .map(granted -> {
+                    long now = System.nanoTime();
+                    lease.add(granted, now, leaseTtlNanos);
+                    long missing = lease.tryTake(wanted, now);
+                    if (missing == 0) {
+                        return Decision.ALLOWED;
+                    }
+                    uploadMetrics.recordRateLimited(quota.tag);
+                    return new Decision(false, quota.tag, retryAfter(quota, missing));
+                });
+    }
+
+    private LocalLease lease(String clientId, Quota quota) {
+        return leases.get(new BucketKey(clientId, quota), key -> new LocalLease());
+    }
+
+    private Mono<Long> leaseFromRedis(String clientId, Quota quota, long batch) {
+        long rate = quota == Quota.REQUESTS ? requestRate : bytesRate;
+        long burst = quota == Quota.REQUESTS ? requestBurst : bytesBurst;
+        return redisTemplate.execute(LEASE_SCRIPT, List.of(BUCKET_PREFIX + clientId + ":" + quota.tag),
+                        List.of(Long.toString(rate), Long.toString(burst), Long.toString(batch)))
+                .next()
+                .defaultIfEmpty(0L)
+                .doOnNext(granted -> uploadMetrics.recordRateLimitLease(quota.tag, granted))
+                // Без Redis квоты не проверить; пропускаем, а пачка на узле не даёт долбить упавший Redis
+                .onErrorResume(e -> {
+                    log.warn("Rate limit bucket unavailable, letting {} through: {}", clientId, e.toString());
+                    return Mono.just(batch);
+                });
+    }
+
+    // Через сколько корзина наберёт недостающее; с разбросом, чтобы отклонённые клиенты не вернулись разом
+    private long retryAfter(Quota quota, long missing) {
+        long rate = quota == Quota.REQUESTS ? requestRate : bytesRate;
+        double seconds = (double) missing / rate;
+        double jittered = seconds * (1 + ThreadLocalRandom.current().nextDouble(0.5));
+        return Math.max(1, Math.min(maxRetryAfter, (long) Math.ceil(jittered)));
+    }
+}
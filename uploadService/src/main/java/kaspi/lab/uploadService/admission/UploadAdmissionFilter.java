@@ -0,0 +1,73 @@
+package kaspi.lab.uploadService.admission;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.PathContainer;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Admission control на запросах, которые несут тело файла. Решение принимается по заголовкам,
+ * до чтения multipart: отклонённый запрос не занимает ни памяти, ни диска.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class UploadAdmissionFilter implements WebFilter, Ordered {
+
+    private static final List<PathPattern> POST_PATHS = List.of(
+            PathPatternParser.defaultInstance.parse("/api/v1/files/upload"),
+            PathPatternParser.defaultInstance.parse("/api/v1/files/upload/batch"));
+    private static final PathPattern CHUNK_PATH = PathPatternParser.defaultInstance.parse("/api/v1/files/sessions/{sessionId}");
+
+    private final AdmissionController admissionController;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (!carriesUpload(request)) {
+            return chain.filter(exchange);
+        }
+
+        AdmissionController.Admission admission = admissionController.tryAcquire(request.getHeaders().getContentLength());
+        if (!admission.admitted()) {
+            log.debug("Rejected upload {} {}: {}, retry after {}s",
+                    request.getMethod(), request.getPath(), admission.reason(), admission.retryAfterSeconds());
+            exchange.getResponse().setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+            exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(admission.retryAfterSeconds()));
+            return exchange.getResponse().setComplete();
+        }
+
+        long start = System.nanoTime();
+        return chain.filter(exchange)
+                .doFinally(signal -> admissionController.release(admission, Duration.ofNanos(System.nanoTime() - start)));
+    }
+
+    // Раньше остальных фильтров, чтобы отказ стоил как можно меньше
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE + 10;
+    }
+
+    // Общий для фильтров загрузок: запросы, которые несут тело файла
+    static boolean carriesUpload(ServerHttpRequest request) {
+        PathContainer path = request.getPath().pathWithinApplication();
+        if (HttpMethod.POST.equals(request.getMethod())) {
+            return POST_PATHS.stream().anyMatch(pattern -> pattern.matches(path));
+        }
+        return HttpMethod.PATCH.equals(request.getMethod()) && CHUNK_PATH.matches(path);
+    }
+}
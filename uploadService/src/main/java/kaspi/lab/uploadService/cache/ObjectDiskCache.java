@@ -0,0 +1,171 @@
+package kaspi.lab.uploadService.cache;
+
+import jakarta.annotation.PostConstruct;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Локальный LRU-кэш горячих объектов MinIO на диске, ограниченный по суммарному размеру.
+ * Объект попадает в кэш не с первого чтения, а после cache-admit-after промахов,
+ * чтобы разовые скачивания не вымывали действительно горячие файлы.
+ * Найденный через lookup() файл закреплён до unpin(): вытесненный за это время объект
+ * пропадает из индекса сразу, а с диска удаляется, когда его отпустит последний читатель.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ObjectDiskCache {
+
+    // Сколько ключей помнить для подсчёта промахов
+    private static final int MAX_TRACKED_MISSES = 10_000;
+    // Кэш удаляет в своём каталоге только файлы с этими суффиксами
+    private static final String ENTRY_SUFFIX = ".cached";
+    private static final String FILL_PREFIX = "fill-";
+    private static final String FILL_SUFFIX = ".tmp";
+
+    private final AppUploadProperties props;
+
+    // access-order: первый элемент - самый давно читанный
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Integer> misses = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_TRACKED_MISSES;
+        }
+    };
+    private final Set<String> loading = ConcurrentHashMap.newKeySet();
+    // Ключ -> сколько отдач сейчас читают файл; такой файл вытесняется только из индекса
+    private final Map<String, Integer> pins = new HashMap<>();
+    private final Set<String> evictedWhilePinned = new HashSet<>();
+    private long totalBytes;
+
+    @PostConstruct
+    void init() throws IOException {
+        // Индекс кэша живёт в памяти, поэтому после рестарта его файлы удаляются. Только его файлы:
+        // cache-path по ошибке может указывать на каталог, где лежит что-то ещё
+        Path root = root();
+        Files.createDirectories(root);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                boolean own = name.endsWith(ENTRY_SUFFIX) || (name.startsWith(FILL_PREFIX) && name.endsWith(FILL_SUFFIX));
+                if (own && Files.isRegularFile(file)) {
+                    deleteQuietly(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Возвращает закреплённый файл: он не удаляется с диска, пока вызывающий не вызовет unpin(key).
+     */
+    public synchronized Optional<Path> lookup(String key) {
+        if (entries.get(key) == null) {
+            return Optional.empty();
+        }
+        pins.merge(key, 1, Integer::sum);
+        return Optional.of(pathFor(key));
+    }
+
+    public synchronized void unpin(String key) {
+        Integer left = pins.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+        if (left == null && evictedWhilePinned.remove(key)) {
+            deleteQuietly(pathFor(key));
+        }
+    }
+
+    /**
+     * Засчитывает промах и, если объект стал горячим, асинхронно загружает его в кэш.
+     */
+    public void recordMiss(String key, long size, Callable<InputStream> source) {
+        if (size > props.getCacheMaxSize().toBytes() || !admit(key) || !loading.add(key)) {
+            return;
+        }
+
+        Mono.fromCallable(() -> {
+                    Path tmp = Files.createTempFile(root(), FILL_PREFIX, FILL_SUFFIX);
+                    try (InputStream in = source.call()) {
+                        Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+                        Files.move(tmp, pathFor(key), StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(tmp);
+                    }
+                    return Files.size(pathFor(key));
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .doFinally(signal -> loading.remove(key))
+                .subscribe(
+                        stored -> put(key, stored),
+                        err -> log.warn("Could not cache object {}", key, err));
+    }
+
+    private synchronized boolean admit(String key) {
+        int count = misses.merge(key, 1, Integer::sum);
+        if (count < props.getCacheAdmitAfter()) {
+            return false;
+        }
+        misses.remove(key);
+        return true;
+    }
+
+    private synchronized void put(String key, long size) {
+        Long previous = entries.put(key, size);
+        totalBytes += size - (previous != null ? previous : 0);
+        // Файл под этим ключом только что записан заново - отложенное удаление к нему не относится
+        evictedWhilePinned.remove(key);
+        log.info("Cached object {} ({} bytes), cache size {} bytes", key, size, totalBytes);
+
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > props.getCacheMaxSize().toBytes() && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= eldest.getValue();
+            if (pins.containsKey(eldest.getKey())) {
+                evictedWhilePinned.add(eldest.getKey());
+            } else {
+                deleteQuietly(pathFor(eldest.getKey()));
+            }
+        }
+    }
+
+    private Path root() {
+        return Paths.get(props.getCachePath());
+    }
+
+    private Path pathFor(String key) {
+        // Имена объектов содержат '/', а в кэше всё лежит плоско
+        return root().resolve(key.replace('/', '_') + ENTRY_SUFFIX);
+    }
+
+    private void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete cached file: {}", path, e);
+        }
+    }
+}
@@ -1,13 +1,21 @@
 package kaspi.lab.uploadService.config;
 
+import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import lombok.Data;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
 import org.springframework.validation.annotation.Validated;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 @Data
 @Configuration
 @Validated
@@ -17,7 +25,136 @@ public class AppUploadProperties {
     @NotBlank(message = "Временный путь (temp-path) должен быть указан")
     private String tempPath;
 
+    // Несколько точек монтирования под временные файлы; если не заданы, используется только temp-path
+    private List<String> tempPaths = new ArrayList<>();
+
+    // Уровней подкаталогов по 2 символа UUID: 2 - до 65536 каталогов на диск
+    @Min(value = 0, message = "temp-shard-levels должен быть не менее 0")
+    @Max(value = 4, message = "temp-shard-levels должен быть не более 4")
+    private int tempShardLevels = 2;
+
+    // Сколько места на каждом диске не отдаётся под загрузки
+    @NotNull(message = "Резерв свободного места (temp-min-free) должен быть указан")
+    private DataSize tempMinFree = DataSize.ofGigabytes(1);
+
     @NotNull(message = "TTL идемпотентности должен быть указан")
     @Min(value = 60, message = "TTL должен быть не менее 60 секунд")
     private Long idempotencyTtl;
+
+    // Маркер IN_PROGRESS продлевается, пока первый запрос жив; после падения инстанса ключ освобождается через это время
+    @NotNull(message = "TTL маркера IN_PROGRESS должен быть указан")
+    @Min(value = 1, message = "TTL маркера IN_PROGRESS должен быть не менее 1 секунды")
+    private Long idempotencyInProgressTtl = 600L;
+
+    // Сколько дубль ждёт ответа первого запроса, прежде чем получить 409
+    @NotNull(message = "Время ожидания первого запроса должно быть указано")
+    @Min(value = 1, message = "Время ожидания первого запроса должно быть не менее 1 секунды")
+    private Long idempotencyWaitTimeout = 30L;
+
+    @NotNull(message = "Размер локального кэша ответов должен быть указан")
+    private DataSize idempotencyCacheMaxSize = DataSize.ofMegabytes(32);
+
+    @NotNull(message = "TTL сессии возобновляемой загрузки должен быть указан")
+    @Min(value = 60, message = "TTL сессии должен быть не менее 60 секунд")
+    private Long sessionTtl;
+
+    @NotNull(message = "Режим загрузки (mode) должен быть указан")
+    private UploadMode mode = UploadMode.DISK;
+
+    @NotNull(message = "Размер части stream-загрузки должен быть указан")
+    private DataSize streamPartSize = DataSize.ofMegabytes(16);
+
+    @Min(value = 1, message = "stream-prefetch должен быть не менее 1")
+    private int streamPrefetch = 8;
+
+    // Одиночные загрузки, завершившиеся почти одновременно, коммитятся одной транзакцией
+    @Min(value = 1, message = "write-batch-size должен быть не менее 1")
+    private int writeBatchSize = 128;
+
+    @NotNull(message = "Задержка пачки записи (write-batch-delay) должна быть указана")
+    private Duration writeBatchDelay = Duration.ofMillis(5);
+
+    @Min(value = 1, message = "outbox-batch-size должен быть не менее 1")
+    private int outboxBatchSize = 500;
+
+    private boolean outboxNotifyEnabled = true;
+
+    @NotBlank(message = "Каталог дискового кэша (cache-path) должен быть указан")
+    private String cachePath;
+
+    @NotNull(message = "Размер дискового кэша должен быть указан")
+    private DataSize cacheMaxSize = DataSize.ofGigabytes(2);
+
+    @Min(value = 1, message = "cache-admit-after должен быть не менее 1")
+    private int cacheAdmitAfter = 2;
+
+    @NotNull(message = "TTL кэша статусов должен быть указан")
+    @Min(value = 1, message = "TTL кэша статусов должен быть не менее 1 секунды")
+    private Long statusCacheTtl = 300L;
+
+    // Подписка SSE перечитывает статус из БД с этим периодом, даже если NOTIFY не пришёл
+    @NotNull(message = "Период перепроверки статуса (status-recheck-interval) должен быть указан")
+    private Duration statusRecheckInterval = Duration.ofSeconds(10);
+
+    @NotNull(message = "Время жизни подписки на статус (status-events-timeout) должно быть указано")
+    private Duration statusEventsTimeout = Duration.ofHours(1);
+
+    // Комментарий SSE, чтобы прокси не закрывали молчащее соединение
+    @NotNull(message = "Период heartbeat SSE (status-heartbeat-interval) должен быть указан")
+    private Duration statusHeartbeatInterval = Duration.ofSeconds(15);
+
+    @Min(value = 1, message = "batch-max-files должен быть не менее 1")
+    private int batchMaxFiles = 5000;
+
+    // Admission control загрузок: сверх лимитов запрос сразу получает 429 с Retry-After
+    @Min(value = 1, message = "admission-max-in-flight должен быть не менее 1")
+    private int admissionMaxInFlight = 256;
+
+    @NotNull(message = "Лимит принимаемых байт (admission-max-in-flight-bytes) должен быть указан")
+    private DataSize admissionMaxInFlightBytes = DataSize.ofGigabytes(4);
+
+    // Сколько байт засчитывать запросу без Content-Length
+    @NotNull(message = "Оценка размера запроса без Content-Length должна быть указана")
+    private DataSize admissionUnknownSize = DataSize.ofMegabytes(16);
+
+    @Min(value = 1, message = "admission-max-outbox-backlog должен быть не менее 1")
+    private long admissionMaxOutboxBacklog = 100_000;
+
+    @Min(value = 1, message = "admission-max-retry-after должен быть не менее 1 секунды")
+    private long admissionMaxRetryAfter = 60;
+
+    // Квоты на клиента (пользователь, X-Client-Id от доверенного прокси, иначе адрес): token bucket в Redis, узел берёт токены пачками
+    private boolean rateLimitEnabled = true;
+
+    // Прокси (адреса или CIDR), от которых принимается X-Client-Id; от остальных клиент считается по адресу
+    @NotNull(message = "Список доверенных прокси (rate-limit-trusted-proxies) должен быть указан")
+    private List<String> rateLimitTrustedProxies = new ArrayList<>();
+
+    @Min(value = 1, message = "rate-limit-requests-per-second должен быть не менее 1")
+    private long rateLimitRequestsPerSecond = 20;
+
+    @Min(value = 1, message = "rate-limit-request-burst должен быть не менее 1")
+    private long rateLimitRequestBurst = 40;
+
+    @NotNull(message = "Квота байт в секунду (rate-limit-bytes-per-second) должна быть указана")
+    private DataSize rateLimitBytesPerSecond = DataSize.ofMegabytes(50);
+
+    @NotNull(message = "Запас байт (rate-limit-bytes-burst) должен быть указан")
+    private DataSize rateLimitBytesBurst = DataSize.ofMegabytes(200);
+
+    // Сколько токенов узел забирает из Redis за раз
+    @Min(value = 1, message = "rate-limit-request-lease должен быть не менее 1")
+    private long rateLimitRequestLease = 5;
+
+    @NotNull(message = "Размер пачки байт (rate-limit-bytes-lease) должен быть указан")
+    private DataSize rateLimitBytesLease = DataSize.ofMegabytes(16);
+
+    // Неизрасходованная пачка сгорает через это время, чтобы не копить квоту на одном узле
+    @NotNull(message = "Время жизни пачки токенов (rate-limit-lease-ttl) должно быть указано")
+    private Duration rateLimitLeaseTtl = Duration.ofSeconds(1);
+
+    public List<Path> tempMounts() {
+        List<String> paths = tempPaths.isEmpty() ? List.of(tempPath) : tempPaths;
+        return paths.stream().map(Paths::get).distinct().toList();
+    }
 }
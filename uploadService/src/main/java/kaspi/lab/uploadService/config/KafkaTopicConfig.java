@@ -0,0 +1,33 @@
+package kaspi.lab.uploadService.config;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+/**
+ * Топик событий создаётся KafkaAdmin при старте. Число партиций - верхняя граница числа
+ * consumer'ов processingService, которые реально получают работу. Если топик уже есть и
+ * партиций в нём меньше, KafkaAdmin их добавит; уменьшить число партиций нельзя.
+ */
+@Configuration
+public class KafkaTopicConfig {
+
+    @Value("${app.kafka.topic}")
+    private String topic;
+
+    @Value("${app.kafka.partitions}")
+    private int partitions;
+
+    @Value("${app.kafka.replicas}")
+    private short replicas;
+
+    @Bean
+    public NewTopic fileUploadedTopic() {
+        return TopicBuilder.name(topic)
+                .partitions(partitions)
+                .replicas(replicas)
+                .build();
+    }
+}
@@ -0,0 +1,5 @@
+package kaspi.lab.uploadService.config;
+
+public enum UploadMode {
+    DISK, STREAM
+}
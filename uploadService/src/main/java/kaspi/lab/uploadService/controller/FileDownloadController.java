@@ -0,0 +1,120 @@
+package kaspi.lab.uploadService.controller;
+
+import kaspi.lab.uploadService.dto.response.FileDownload;
+import kaspi.lab.uploadService.service.DownloadService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ZeroCopyHttpOutputMessage;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Отдача содержимого файла с поддержкой Range и If-None-Match.
+ * Горячие файлы отдаются из локального кэша через zero-copy (sendfile),
+ * остальные потоково читаются из MinIO без буферизации всего объекта.
+ */
+@RestController
+@RequestMapping("/api/v1/files")
+@RequiredArgsConstructor
+public class FileDownloadController {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DownloadService downloadService;
+
+    @GetMapping("/{fileId}/content")
+    public Mono<Void> download(
+            @PathVariable UUID fileId,
+            @RequestHeader HttpHeaders requestHeaders,
+            ServerHttpResponse response
+    ) {
+        // Файл из дискового кэша закреплён, пока ответ не отдан: иначе вытеснение удалило бы его
+        // между prepare() и открытием в writeWith
+        return Mono.usingWhen(
+                downloadService.prepare(fileId),
+                download -> {
+                    HttpHeaders headers = response.getHeaders();
+                    headers.setETag(download.etag());
+                    headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+                    List<String> ifNoneMatch = requestHeaders.getIfNoneMatch();
+                    if (ifNoneMatch.contains(download.etag()) || ifNoneMatch.contains("*")) {
+                        response.setStatusCode(HttpStatus.NOT_MODIFIED);
+                        return response.setComplete();
+                    }
+
+                    headers.setContentType(download.contentType() != null
+                            ? MediaType.parseMediaType(download.contentType())
+                            : MediaType.APPLICATION_OCTET_STREAM);
+                    headers.setContentDisposition(ContentDisposition.attachment().filename(download.filename()).build());
+
+                    long size = download.size();
+                    long start = 0;
+                    long length = size;
+
+                    List<HttpRange> ranges = parseRanges(requestHeaders);
+                    // Несколько диапазонов (multipart/byteranges) не поддерживаем - по RFC 9110 можно отдать весь файл
+                    if (ranges.size() == 1 && size >= 0) {
+                        HttpRange range = ranges.get(0);
+                        if (!satisfiable(range, size)) {
+                            headers.set(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                            response.setStatusCode(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+                            return response.setComplete();
+                        }
+                        start = range.getRangeStart(size);
+                        length = range.getRangeEnd(size) - start + 1;
+                        headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (start + length - 1) + "/" + size);
+                        response.setStatusCode(HttpStatus.PARTIAL_CONTENT);
+                    }
+
+                    if (length >= 0) {
+                        headers.setContentLength(length);
+                    }
+                    return write(download, start, length, response);
+                },
+                download -> Mono.fromRunnable(() -> downloadService.release(download)));
+    }
+
+    private Mono<Void> write(FileDownload download, long start, long length, ServerHttpResponse response) {
+        if (download.cachedFile() == null) {
+            return response.writeWith(downloadService.stream(download, start, length));
+        }
+
+        if (response instanceof ZeroCopyHttpOutputMessage zeroCopy) {
+            return zeroCopy.writeWith(download.cachedFile(), start, length);
+        }
+        return response.writeWith(DataBufferUtils.takeUntilByteCount(
+                DataBufferUtils.read(download.cachedFile(), DefaultDataBufferFactory.sharedInstance, BUFFER_SIZE, StandardOpenOption.READ)
+                        .transform(buffers -> DataBufferUtils.skipUntilByteCount(buffers, start)),
+                length));
+    }
+
+    private List<HttpRange> parseRanges(HttpHeaders requestHeaders) {
+        try {
+            return requestHeaders.getRange();
+        } catch (IllegalArgumentException e) {
+            // Некорректный Range игнорируется, отдаём файл целиком
+            return List.of();
+        }
+    }
+
+    private boolean satisfiable(HttpRange range, long size) {
+        try {
+            range.getRangeStart(size);
+            return size > 0;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package kaspi.lab.uploadService.controller;
+
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.dto.response.FileStatusResponse;
+import kaspi.lab.uploadService.service.FileStatusService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+@RestController
+@RequestMapping("/api/v1/files")
+@RequiredArgsConstructor
+public class FileStatusController {
+
+    private final FileStatusService fileStatusService;
+    private final AppUploadProperties props;
+
+    @GetMapping("/{fileId}")
+    public Mono<FileStatusResponse> getStatus(@PathVariable UUID fileId) {
+        return fileStatusService.getStatus(fileId);
+    }
+
+    @GetMapping(value = "/{fileId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<FileStatusResponse>> statusEvents(@PathVariable UUID fileId) {
+        return fileStatusService.statusEvents(fileId)
+                .map(status -> ServerSentEvent.builder(status)
+                        .event(status.status())
+                        .build())
+                // Heartbeat идёт, пока не закончились статусы
+                .publish(events -> Flux.merge(events, Flux.interval(props.getStatusHeartbeatInterval())
+                        .map(tick -> ServerSentEvent.<FileStatusResponse>builder().comment("heartbeat").build())
+                        .takeUntilOther(events.then())));
+    }
+}
@@ -10,9 +10,10 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-import java.util.Objects;
+import java.util.List;
 
 @Slf4j
 @RestController
@@ -26,18 +27,25 @@ public class FileUploadController {
     @ResponseStatus(HttpStatus.ACCEPTED)
     public Mono<FileUploadResponse> uploadFile(
             @RequestPart("file") Mono<FilePart> filePartMono,
-            @RequestHeader("X-Idempotency-Key") @NotBlank String idempotencyKey
+            @RequestHeader("X-Idempotency-Key") @NotBlank String idempotencyKey,
+            // Заявленный размер файла: под него заранее резервируется место, больше - 413
+            @RequestHeader(value = "X-File-Size", required = false) Long declaredSize
             ) {
         return filePartMono
                 .flatMap(filePart -> {
                     log.info("Received upload request for file: {} with key: {}", filePart.filename(), idempotencyKey);
 
-                    FileUploadRequest request = FileUploadRequest.builder()
-                            .filename(filePart.filename())
-                            .contentType(filePart.headers().getContentType() != null ? Objects.requireNonNull(filePart.headers().getContentType()).toString() : "application/octet-stream")
-                            .build();
-
-                    return uploadService.processUpload(filePart, request, idempotencyKey);
+                    return uploadService.processUpload(filePart, FileUploadRequest.from(filePart, declaredSize), idempotencyKey);
                 });
     }
+
+    @PostMapping(value = "/upload/batch", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public Mono<List<FileUploadResponse>> uploadBatch(
+            @RequestPart("file") Flux<FilePart> fileParts,
+            @RequestHeader("X-Idempotency-Key") @NotBlank String idempotencyKey
+            ) {
+        log.info("Received batch upload request with key: {}", idempotencyKey);
+        return uploadService.processBatch(fileParts, idempotencyKey);
+    }
 }
@@ -0,0 +1,76 @@
+package kaspi.lab.uploadService.controller;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotBlank;
+import kaspi.lab.uploadService.dto.request.UploadSessionRequest;
+import kaspi.lab.uploadService.dto.response.FileUploadResponse;
+import kaspi.lab.uploadService.dto.response.UploadSessionResponse;
+import kaspi.lab.uploadService.service.ResumableUploadService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+/**
+ * Возобновляемая загрузка: создать сессию, дослать чанки PATCH-ем по смещению,
+ * узнать текущее смещение через HEAD и завершить сессию.
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/v1/files/sessions")
+@RequiredArgsConstructor
+public class ResumableUploadController {
+
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+    private static final String UPLOAD_LENGTH = "Upload-Length";
+
+    private final ResumableUploadService resumableUploadService;
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<UploadSessionResponse> createSession(
+            @Valid @RequestBody UploadSessionRequest request,
+            @RequestHeader("X-Idempotency-Key") @NotBlank String idempotencyKey
+    ) {
+        log.info("Received upload session request for file: {} ({} bytes) with key: {}", request.filename(), request.size(), idempotencyKey);
+        return resumableUploadService.createSession(request, idempotencyKey);
+    }
+
+    @RequestMapping(value = "/{sessionId}", method = RequestMethod.HEAD)
+    public Mono<ResponseEntity<Void>> getOffset(@PathVariable UUID sessionId) {
+        return resumableUploadService.getSession(sessionId)
+                .map(session -> offsetResponse(HttpStatus.OK, session));
+    }
+
+    @PatchMapping(value = "/{sessionId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public Mono<ResponseEntity<Void>> appendChunk(
+            @PathVariable UUID sessionId,
+            @RequestHeader(UPLOAD_OFFSET) long offset,
+            @RequestBody Flux<DataBuffer> chunk
+    ) {
+        return resumableUploadService.appendChunk(sessionId, offset, chunk)
+                .map(session -> offsetResponse(HttpStatus.NO_CONTENT, session));
+    }
+
+    @PostMapping("/{sessionId}/complete")
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public Mono<FileUploadResponse> complete(@PathVariable UUID sessionId) {
+        return resumableUploadService.complete(sessionId);
+    }
+
+    private ResponseEntity<Void> offsetResponse(HttpStatus status, UploadSessionResponse session) {
+        return ResponseEntity.status(status)
+                .header(UPLOAD_OFFSET, Long.toString(session.offset()))
+                .header(UPLOAD_LENGTH, Long.toString(session.size()))
+                .cacheControl(CacheControl.noStore())
+                .build();
+    }
+}
@@ -26,8 +26,16 @@ public class FileEntity implements Persistable<UUID> {
     private Long size;
     private String status;
     private String storagePath;
+    private String contentHash;
+    // Заполняются processingService: как объект сжат в MinIO и размер несжатого содержимого
+    private String contentEncoding;
+    private Long originalSize;
     private Instant createdAt;
 
+    // traceparent запроса загрузки, уходит в outbox вместе с событием
+    @Transient
+    private String traceContext;
+
     @Transient
     @Builder.Default
     private boolean isNewEntry = false;
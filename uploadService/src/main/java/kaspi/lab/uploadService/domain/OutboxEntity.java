@@ -19,7 +19,14 @@ public class OutboxEntity {
     @Id
     private Long id;
     private String eventType;
+    // Ключ записи в Kafka (id файла): события одного файла попадают в одну партицию
+    private String aggregateId;
+    // JSON, только у строк, записанных до перехода на бинарный формат
     private String payload;
+    // FileUploadedEventCodec
+    private byte[] payloadBin;
+    // traceparent запроса загрузки; relay продолжает от него trace в заголовках Kafka
+    private String traceContext;
     private String status;
     private Instant createdAt;
 }
@@ -0,0 +1,20 @@
+package kaspi.lab.uploadService.domain;
+
+import lombok.Builder;
+
+import java.util.UUID;
+
+/**
+ * Состояние возобновляемой загрузки. Хранится в Redis до завершения сессии.
+ */
+@Builder(toBuilder = true)
+public record UploadSession(
+        UUID id,
+        String idempotencyKey,
+        String filename,
+        String contentType,
+        long size,
+        long offset,
+        // Временный файл, выбранный TempStorageManager при создании сессии
+        String path
+) {}
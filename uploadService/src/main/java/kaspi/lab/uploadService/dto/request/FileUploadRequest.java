@@ -1,10 +1,27 @@
 package kaspi.lab.uploadService.dto.request;
 
 import lombok.Builder;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePart;
 
 @Builder
 public record FileUploadRequest(
         String filename,
         String contentType,
         long size
-) {}
+) {
+
+    /**
+     * Метаданные из заголовков части multipart. Без Content-Type файл считается
+     * application/octet-stream; без declaredSize берётся Content-Length части, который
+     * в multipart необязателен (-1 - размер не заявлен, тогда 0).
+     */
+    public static FileUploadRequest from(FilePart filePart, Long declaredSize) {
+        MediaType contentType = filePart.headers().getContentType();
+        return FileUploadRequest.builder()
+                .filename(filePart.filename())
+                .contentType(contentType != null ? contentType.toString() : MediaType.APPLICATION_OCTET_STREAM_VALUE)
+                .size(declaredSize != null ? declaredSize : Math.max(filePart.headers().getContentLength(), 0))
+                .build();
+    }
+}
@@ -0,0 +1,12 @@
+package kaspi.lab.uploadService.dto.request;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.Builder;
+
+@Builder
+public record UploadSessionRequest(
+        @NotBlank String filename,
+        String contentType,
+        @PositiveOrZero long size
+) {}
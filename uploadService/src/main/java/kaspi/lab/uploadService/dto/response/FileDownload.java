@@ -0,0 +1,20 @@
+package kaspi.lab.uploadService.dto.response;
+
+import lombok.Builder;
+
+import java.nio.file.Path;
+import java.util.UUID;
+
+@Builder
+public record FileDownload(
+        UUID fileId,
+        String filename,
+        String contentType,
+        long size,
+        String objectName,
+        // zstd или gzip, если объект в MinIO сжат; клиенту отдаётся распакованным
+        String contentEncoding,
+        String etag,
+        // Локальная копия из дискового кэша, null если читать нужно из MinIO
+        Path cachedFile
+) {}
@@ -2,13 +2,15 @@ package kaspi.lab.uploadService.dto.response;
 
 import lombok.Builder;
 
+import java.time.Instant;
 import java.util.UUID;
 
 @Builder
-public record FileUploadedEvent(
+public record FileStatusResponse(
         UUID fileId,
-        String tempPath,
         String filename,
         String contentType,
-        long size
-) {}
\ No newline at end of file
+        Long size,
+        String status,
+        Instant createdAt
+) {}
@@ -0,0 +1,12 @@
+package kaspi.lab.uploadService.dto.response;
+
+import lombok.Builder;
+
+import java.util.UUID;
+
+@Builder
+public record UploadSessionResponse(
+        UUID sessionId,
+        long offset,
+        long size
+) {}
@@ -1,9 +1,10 @@
 package kaspi.lab.uploadService.mapper;
 
+import kaspi.lab.eventContract.FileUploadedEvent;
 import kaspi.lab.uploadService.domain.FileEntity;
 import kaspi.lab.uploadService.dto.request.FileUploadRequest;
+import kaspi.lab.uploadService.dto.response.FileStatusResponse;
 import kaspi.lab.uploadService.dto.response.FileUploadResponse;
-import kaspi.lab.uploadService.dto.response.FileUploadedEvent;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 
@@ -19,13 +20,28 @@ public interface FileMapper {
     @Mapping(target = "isNewEntry", constant = "true")
     @Mapping(target = "idempotencyKey", source = "key")
     @Mapping(target = "storagePath", ignore = true)
+    @Mapping(target = "contentHash", ignore = true)
+    @Mapping(target = "traceContext", ignore = true)
+    @Mapping(target = "contentEncoding", ignore = true)
+    @Mapping(target = "originalSize", ignore = true)
     FileEntity toEntity(FileUploadRequest request, String key);
 
     @Mapping(target = "fileId", source = "id")
     @Mapping(target = "timestamp", expression = "java(Instant.now())")
     FileUploadResponse toResponse(FileEntity entity);
 
+    @Mapping(target = "fileId", source = "id")
+    FileStatusResponse toStatusResponse(FileEntity entity);
+
     @Mapping(target = "fileId", source = "entity.id")
     @Mapping(target = "tempPath", source = "fullPath")
+    @Mapping(target = "storedObject", ignore = true)
+    @Mapping(target = "uploadedAt", source = "entity.createdAt")
     FileUploadedEvent toEvent(FileEntity entity, String fullPath);
+
+    @Mapping(target = "fileId", source = "entity.id")
+    @Mapping(target = "tempPath", ignore = true)
+    @Mapping(target = "storedObject", source = "objectName")
+    @Mapping(target = "uploadedAt", source = "entity.createdAt")
+    FileUploadedEvent toStoredEvent(FileEntity entity, String objectName);
 }
@@ -0,0 +1,184 @@
+package kaspi.lab.uploadService.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.repository.OutboxRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Метрики uploadService: запись во временный каталог, запись в БД, outbox relay и отправка в Kafka.
+ * Отдаются через /actuator/prometheus.
+ */
+@Slf4j
+@Component
+public class UploadMetrics {
+
+    private final MeterRegistry registry;
+    private final OutboxRepository outboxRepository;
+    private final Timer tempWrite;
+    private final DistributionSummary tempWriteBytes;
+    private final Timer dbWrite;
+    private final DistributionSummary dbWriteBatch;
+    private final Timer relayLag;
+    private final Timer kafkaSend;
+    private final AtomicLong outboxBacklog = new AtomicLong();
+
+    // Счётчики с тегами создаются один раз на значение тега: их дёргает каждый 429 и каждая пачка токенов
+    private final Map<String, Counter> admissionRejected = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rateLimited = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rateLimitLeased = new ConcurrentHashMap<>();
+
+    public UploadMetrics(MeterRegistry registry, OutboxRepository outboxRepository, AppUploadProperties props) {
+        this.registry = registry;
+        this.outboxRepository = outboxRepository;
+        this.tempWrite = Timer.builder("upload.temp.write")
+                .description("Time to write an uploaded file to temp storage or stream it to MinIO")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.tempWriteBytes = DistributionSummary.builder("upload.temp.write.size")
+                .description("Size of uploaded files")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.dbWrite = Timer.builder("upload.db.write")
+                .description("Time to commit one batch of files and outbox rows")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.dbWriteBatch = DistributionSummary.builder("upload.db.write.batch")
+                .description("Files committed per transaction")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.relayLag = Timer.builder("outbox.relay.lag")
+                .description("Time between an outbox row being created and its event being sent to Kafka")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.kafkaSend = Timer.builder("outbox.kafka.send")
+                .description("Kafka send latency of outbox events")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        Gauge.builder("outbox.backlog", outboxBacklog, AtomicLong::get)
+                .description("Outbox rows waiting to be relayed")
+                .register(registry);
+        // Это занятость файловой системы, на которой лежит точка монтирования, а не размер самого каталога
+        for (Path mount : props.tempMounts()) {
+            Gauge.builder("upload.temp.fs.used", mount, tempStore(store -> store.getTotalSpace() - store.getUsableSpace()))
+                    .description("Used space on the file system holding the temp storage mount")
+                    .tag("mount", mount.toString())
+                    .baseUnit("bytes")
+                    .register(registry);
+            Gauge.builder("upload.temp.fs.free", mount, tempStore(FileStore::getUsableSpace))
+                    .description("Usable space left on the file system holding the temp storage mount")
+                    .tag("mount", mount.toString())
+                    .baseUnit("bytes")
+                    .register(registry);
+        }
+    }
+
+    public <T> Mono<T> timeTempWrite(Mono<T> write) {
+        return timed(tempWrite, write);
+    }
+
+    public void recordFileSize(long bytes) {
+        tempWriteBytes.record(bytes);
+    }
+
+    public <T> Mono<T> timeDbWrite(int files, Mono<T> write) {
+        return timed(dbWrite, write).doOnSuccess(ignored -> dbWriteBatch.record(files));
+    }
+
+    public <T> Mono<T> timeKafkaSend(Instant createdAt, Mono<T> send) {
+        return timed(kafkaSend, send).doOnSuccess(ignored -> {
+            if (createdAt != null) {
+                relayLag.record(Duration.between(createdAt, Instant.now()));
+            }
+        });
+    }
+
+    // Сколько событий outbox отправлено в Kafka с момента старта
+    public long relayedEvents() {
+        return kafkaSend.count();
+    }
+
+    public void registerAdmission(AtomicInteger inFlight, AtomicLong inFlightBytes) {
+        Gauge.builder("upload.admission.in.flight", inFlight, AtomicInteger::get)
+                .description("Uploads currently admitted and being received")
+                .register(registry);
+        Gauge.builder("upload.admission.in.flight.bytes", inFlightBytes, AtomicLong::get)
+                .description("Declared bytes of uploads currently being received")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public void recordAdmissionRejected(String reason) {
+        admissionRejected.computeIfAbsent(reason, tag -> Counter.builder("upload.admission.rejected")
+                        .description("Uploads rejected with 429 by admission control")
+                        .tag("reason", tag)
+                        .register(registry))
+                .increment();
+    }
+
+    public void recordRateLimited(String quota) {
+        rateLimited.computeIfAbsent(quota, tag -> Counter.builder("upload.ratelimit.rejected")
+                        .description("Uploads rejected with 429 because the client ran out of quota")
+                        .tag("quota", tag)
+                        .register(registry))
+                .increment();
+    }
+
+    public void recordRateLimitLease(String quota, long granted) {
+        rateLimitLeased.computeIfAbsent(quota, tag -> Counter.builder("upload.ratelimit.leased")
+                        .description("Tokens leased from the shared Redis buckets")
+                        .tag("quota", tag)
+                        .register(registry))
+                .increment(granted);
+    }
+
+    // COUNT(*) по частичному индексу дешёвый, но на каждый scrape его не делаем
+    @Scheduled(fixedDelayString = "${app.upload.metrics-refresh-interval:10000}")
+    public void refreshOutboxBacklog() {
+        outboxRepository.countNew()
+                .subscribe(outboxBacklog::set, err -> log.warn("Could not refresh outbox backlog gauge", err));
+    }
+
+    private static <T> Mono<T> timed(Timer timer, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return mono.doOnSuccess(ignored -> timer.record(Duration.ofNanos(System.nanoTime() - start)));
+        });
+    }
+
+    private interface StoreSpace {
+        long get(FileStore store) throws IOException;
+    }
+
+    // Считается по файловой системе точки монтирования: это дешёвый statfs, а не обход каталога
+    private static ToDoubleFunction<Path> tempStore(StoreSpace space) {
+        return mount -> {
+            try {
+                return space.get(Files.getFileStore(mount));
+            } catch (IOException e) {
+                return Double.NaN;
+            }
+        };
+    }
+}
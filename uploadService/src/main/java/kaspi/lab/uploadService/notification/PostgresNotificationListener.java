@@ -0,0 +1,59 @@
+package kaspi.lab.uploadService.notification;
+
+import io.r2dbc.postgresql.api.Notification;
+import io.r2dbc.postgresql.api.PostgresqlConnection;
+import io.r2dbc.postgresql.api.PostgresqlResult;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+
+/**
+ * Подписка на Postgres LISTEN/NOTIFY. Пул R2DBC для этого не годится: соединение
+ * должно жить всё время подписки, поэтому под каждый канал открывается отдельное
+ * соединение без пула и переоткрывается при обрыве.
+ */
+@Slf4j
+@Component
+public class PostgresNotificationListener {
+
+    private final ConnectionFactory connectionFactory;
+
+    public PostgresNotificationListener(
+            @Value("${spring.r2dbc.url}") String url,
+            @Value("${spring.r2dbc.username}") String username,
+            @Value("${spring.r2dbc.password}") String password) {
+        this.connectionFactory = ConnectionFactories.get(ConnectionFactoryOptions.parse(url).mutate()
+                .option(ConnectionFactoryOptions.USER, username)
+                .option(ConnectionFactoryOptions.PASSWORD, password)
+                .build());
+    }
+
+    // Возвращает payload уведомлений канала (пустая строка, если NOTIFY без payload)
+    public Flux<String> listen(String channel) {
+        return Flux.usingWhen(
+                        Mono.from(connectionFactory.create()).cast(PostgresqlConnection.class),
+                        connection -> connection.createStatement("LISTEN " + channel).execute()
+                                .flatMap(PostgresqlResult::getRowsUpdated)
+                                .doOnComplete(() -> log.info("Listening for Postgres notifications on channel {}", channel))
+                                .thenMany(connection.getNotifications())
+                                .map(this::payload)
+                                // Закрытие соединения тоже должно привести к переподписке
+                                .concatWith(Mono.error(new IllegalStateException("LISTEN connection closed"))),
+                        PostgresqlConnection::close)
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .doBeforeRetry(signal -> log.warn("Lost LISTEN connection for channel {}, reconnecting", channel, signal.failure())));
+    }
+
+    private String payload(Notification notification) {
+        return notification.getParameter() != null ? notification.getParameter() : "";
+    }
+}
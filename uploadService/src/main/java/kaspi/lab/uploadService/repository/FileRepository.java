@@ -2,10 +2,14 @@ package kaspi.lab.uploadService.repository;
 
 import kaspi.lab.uploadService.domain.FileEntity;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.UUID;
 
 public interface FileRepository extends ReactiveCrudRepository<FileEntity, UUID> {
     Mono<FileEntity> findByIdempotencyKey(String key);
+
+    // Файлы пакетной загрузки хранятся под ключами <key>:<index>
+    Flux<FileEntity> findAllByIdempotencyKeyStartingWith(String prefix);
 }
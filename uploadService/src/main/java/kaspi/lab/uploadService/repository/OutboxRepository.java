@@ -1,9 +1,22 @@
 package kaspi.lab.uploadService.repository;
 
 import kaspi.lab.uploadService.domain.OutboxEntity;
+import org.springframework.data.r2dbc.repository.Modifying;
+import org.springframework.data.r2dbc.repository.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public interface OutboxRepository extends ReactiveCrudRepository<OutboxEntity, Long> {
-    Flux<OutboxEntity> findAllByStatus(String status);
+
+    // Забирает пачку NEW-строк под блокировку; строки, занятые другим инстансом, пропускаются
+    @Query("SELECT * FROM outbox WHERE status = 'NEW' ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED")
+    Flux<OutboxEntity> claimBatch(int limit);
+
+    @Query("SELECT COUNT(*) FROM outbox WHERE status = 'NEW'")
+    Mono<Long> countNew();
+
+    @Modifying
+    @Query("UPDATE outbox SET status = 'PROCESSED' WHERE id = ANY(:ids)")
+    Mono<Integer> markProcessed(Long[] ids);
 }
@@ -0,0 +1,40 @@
+package kaspi.lab.uploadService.scheduler;
+
+import kaspi.lab.uploadService.notification.PostgresNotificationListener;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+
+/**
+ * Будит OutboxRelay по NOTIFY из FileOutboxWriter, не дожидаясь очередного тика.
+ * Поллинг по outbox-check-interval остаётся подстраховкой для потерянных уведомлений.
+ */
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "app.upload", name = "outbox-notify-enabled", havingValue = "true", matchIfMissing = true)
+public class OutboxNotificationTrigger implements DisposableBean {
+
+    public static final String CHANNEL = "outbox_new";
+
+    private final PostgresNotificationListener notificationListener;
+    private final OutboxRelay outboxRelay;
+
+    private Disposable subscription;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        subscription = notificationListener.listen(CHANNEL)
+                .subscribe(payload -> outboxRelay.processOutbox());
+    }
+
+    @Override
+    public void destroy() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+}
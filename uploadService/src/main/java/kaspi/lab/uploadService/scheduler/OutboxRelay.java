@@ -1,14 +1,27 @@
 package kaspi.lab.uploadService.scheduler;
 
+import io.micrometer.tracing.Span;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.domain.OutboxEntity;
+import kaspi.lab.uploadService.metrics.UploadMetrics;
 import kaspi.lab.uploadService.repository.OutboxRepository;
+import kaspi.lab.uploadService.tracing.OutboxTracing;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 @Slf4j
 @Component
 @EnableScheduling
@@ -16,24 +29,99 @@ import reactor.core.publisher.Mono;
 public class OutboxRelay {
 
     private final OutboxRepository outboxRepository;
-    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+    private final TransactionalOperator transactionalOperator;
+    private final AppUploadProperties props;
+    private final UploadMetrics uploadMetrics;
+    private final OutboxTracing outboxTracing;
+
+    @Value("${app.kafka.topic}")
+    private String topic;
 
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean rerunRequested = new AtomicBoolean();
+
+    // Вызывается и по расписанию, и из OutboxNotificationTrigger при NOTIFY
     @Scheduled(fixedDelayString = "${app.upload.outbox-check-interval:5000}")
     public void processOutbox() {
-        outboxRepository.findAllByStatus("NEW")
-                .flatMap(event -> {
-                    log.info("Relaying event {} to Kafka", event.getId());
-
-                    return Mono.fromFuture(kafkaTemplate.send("file-uploaded-topic", event.getPayload()).toCompletableFuture())
-                            .flatMap(result -> {
-                                event.setStatus("PROCESSED");
-                                return outboxRepository.save(event);
-                            })
-                            .onErrorResume(e -> {
-                                log.error("Failed to relay event {}", event.getId(), e);
-
-                                return Mono.empty();
-                            });
-                }).subscribe();
+        // Новый тик не стартует, пока не дочитан хвост предыдущего; пропущенный вызов
+        // запоминается, чтобы строки, вставленные во время прогона, не ждали следующего тика
+        if (!running.compareAndSet(false, true)) {
+            rerunRequested.set(true);
+            log.debug("Previous outbox relay run is still in progress, deferring");
+            return;
+        }
+
+        relayBatch()
+                .expand(drainMore -> drainMore ? relayBatch() : Mono.empty())
+                .doFinally(signal -> {
+                    running.set(false);
+                    if (rerunRequested.getAndSet(false)) {
+                        processOutbox();
+                    }
+                })
+                .subscribe(
+                        drainMore -> { },
+                        err -> log.error("Outbox relay run failed", err));
+    }
+
+    /**
+     * Одна пачка в одной транзакции: строки держатся под FOR UPDATE SKIP LOCKED, пока
+     * события уходят в Kafka, поэтому параллельные инстансы берут непересекающиеся пачки.
+     * Возвращает true, если пачка была полной и прошла без ошибок - значит, есть смысл читать дальше.
+     */
+    private Mono<Boolean> relayBatch() {
+        int batchSize = props.getOutboxBatchSize();
+
+        return outboxRepository.claimBatch(batchSize)
+                .collectList()
+                .flatMap(batch -> batch.isEmpty()
+                        ? Mono.just(false)
+                        : sendBatch(batch).map(sent -> batch.size() == batchSize && sent == batch.size()))
+                .as(transactionalOperator::transactional);
+    }
+
+    // Строки, записанные до бинарного формата, уходят как есть - consumer понимает и JSON
+    private byte[] payload(OutboxEntity event) {
+        return event.getPayloadBin() != null ? event.getPayloadBin() : event.getPayload().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Span "outbox relay" - дочерний к запросу загрузки и покрывает только отправку в Kafka;
+     * промежуток между концом запроса и его началом на timeline - это ожидание в outbox.
+     * Контекст span'а уходит в заголовках записи, consumer продолжает trace от него.
+     */
+    private Mono<Void> send(OutboxEntity event) {
+        return Mono.defer(() -> {
+            Span span = outboxTracing.startRelaySpan(event.getTraceContext())
+                    .tag("outbox.id", String.valueOf(event.getId()));
+            // Ключ - id файла: события одного файла идут в одну партицию и обрабатываются по порядку
+            ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, event.getAggregateId(), payload(event));
+            outboxTracing.headers(span).forEach((name, value) ->
+                    record.headers().add(name, value.getBytes(StandardCharsets.UTF_8)));
+
+            return Mono.fromFuture(() -> kafkaTemplate.send(record).toCompletableFuture())
+                    .doOnError(span::error)
+                    .doFinally(signal -> span.end())
+                    .then();
+        });
+    }
+
+    private Mono<Integer> sendBatch(List<OutboxEntity> batch) {
+        log.info("Relaying {} outbox events to Kafka", batch.size());
+
+        // Все send() отправляются сразу и ждутся вместе, продюсер сам склеит их в батчи
+        return Flux.fromIterable(batch)
+                .flatMap(event -> uploadMetrics.timeKafkaSend(event.getCreatedAt(), send(event))
+                        .thenReturn(event.getId())
+                        .onErrorResume(e -> {
+                            log.error("Failed to relay event {}", event.getId(), e);
+
+                            return Mono.empty();
+                        }), batch.size())
+                .collectList()
+                .flatMap(ids -> ids.isEmpty()
+                        ? Mono.just(0)
+                        : outboxRepository.markProcessed(ids.toArray(Long[]::new)).thenReturn(ids.size()));
     }
 }
@@ -0,0 +1,148 @@
+package kaspi.lab.uploadService.scheduler;
+
+import kaspi.lab.eventContract.ContentEncodings;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.repository.FileRepository;
+import kaspi.lab.uploadService.service.impl.ResumableUploadServiceImpl;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Удаляет временные файлы, которые уже никому не принадлежат. Файл возобновляемой сессии
+ * создаётся сразу длиной в заявленный размер, а сессия просто истекает в Redis - без чистки
+ * брошенные сессии копились бы на диске.
+ *
+ * Файл считается брошенным, если он не менялся дольше session-ttl, сессии с его id в Redis
+ * нет и в files нет записи с этим id (такой файл ещё ждёт processingService).
+ * Под условие попадают и остатки обычных загрузок, упавших до записи в files.
+ *
+ * Сжатые копии <uuid>.zstd / <uuid>.gzip processingService удаляет сам сразу после загрузки
+ * в MinIO, поэтому копия, не менявшаяся дольше session-ttl, осталась от упавшего процесса
+ * и удаляется без проверок: повторная обработка события сожмёт файл заново.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TempFileSweeper {
+
+    private final AppUploadProperties props;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final FileRepository fileRepository;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    @Scheduled(fixedDelayString = "${app.upload.temp-sweep-interval:3600000}",
+            initialDelayString = "${app.upload.temp-sweep-interval:3600000}")
+    public void sweep() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+
+        Instant staleBefore = Instant.now().minus(Duration.ofSeconds(props.getSessionTtl()));
+        Mono.fromCallable(() -> staleFiles(staleBefore))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(Flux::fromIterable)
+                .concatMap(this::deleteIfAbandoned)
+                .reduce(0, (deleted, file) -> deleted + 1)
+                .doFinally(signal -> running.set(false))
+                .subscribe(
+                        deleted -> {
+                            if (deleted > 0) {
+                                log.info("Removed {} abandoned temp files", deleted);
+                            }
+                        },
+                        err -> log.error("Temp file sweep failed", err));
+    }
+
+    private Mono<Path> deleteIfAbandoned(Path file) {
+        String name = file.getFileName().toString();
+        if (!isUuid(name)) {
+            return delete(file);
+        }
+        UUID id = UUID.fromString(name);
+        return Mono.zip(
+                        redisTemplate.hasKey(ResumableUploadServiceImpl.SESSION_PREFIX + id),
+                        fileRepository.existsById(id))
+                .filter(owners -> !owners.getT1() && !owners.getT2())
+                .flatMap(owners -> delete(file))
+                .onErrorResume(e -> {
+                    // Redis или БД недоступны - лучше оставить файл до следующего прохода
+                    log.warn("Could not check temp file {}", file, e);
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<Path> delete(Path file) {
+        return Mono.fromCallable(() -> {
+                    Files.deleteIfExists(file);
+                    log.debug("Removed abandoned temp file {}", file);
+                    return file;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(IOException.class, e -> {
+                    log.warn("Could not delete temp file {}", file, e);
+                    return Mono.empty();
+                });
+    }
+
+    // Файлы с именем-UUID и их сжатые копии, и в шардах <ab>/<cd>/, и в корне (раскладка до шардирования)
+    private List<Path> staleFiles(Instant staleBefore) throws IOException {
+        List<Path> stale = new ArrayList<>();
+        for (Path root : props.tempMounts()) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(root, props.getTempShardLevels() + 1)) {
+                files.filter(Files::isRegularFile)
+                        .filter(file -> isOwnedName(file.getFileName().toString()))
+                        .filter(file -> modifiedBefore(file, staleBefore))
+                        .forEach(stale::add);
+            }
+        }
+        return stale;
+    }
+
+    private static boolean modifiedBefore(Path file, Instant staleBefore) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant().isBefore(staleBefore);
+        } catch (IOException e) {
+            // Файл удалили между обходом и проверкой
+            return false;
+        }
+    }
+
+    private static boolean isOwnedName(String name) {
+        if (isUuid(name)) {
+            return true;
+        }
+        int dot = name.lastIndexOf('.');
+        return dot > 0
+                && ContentEncodings.ALL.contains(name.substring(dot + 1))
+                && isUuid(name.substring(0, dot));
+    }
+
+    private static boolean isUuid(String name) {
+        try {
+            return UUID.fromString(name).toString().equals(name);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
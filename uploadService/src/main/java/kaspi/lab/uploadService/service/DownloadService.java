@@ -0,0 +1,17 @@
+package kaspi.lab.uploadService.service;
+
+import kaspi.lab.uploadService.dto.response.FileDownload;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+public interface DownloadService {
+    Mono<FileDownload> prepare(UUID fileId);
+
+    Flux<DataBuffer> stream(FileDownload download, long offset, long length);
+
+    // Отпускает локальную копию из кэша, закреплённую в prepare(); вызывать после отдачи, в том числе неудачной
+    void release(FileDownload download);
+}
@@ -0,0 +1,229 @@
+package kaspi.lab.uploadService.service;
+
+import kaspi.lab.eventContract.FileUploadedEvent;
+import kaspi.lab.eventContract.FileUploadedEventCodec;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.domain.FileEntity;
+import kaspi.lab.uploadService.domain.OutboxEntity;
+import kaspi.lab.uploadService.mapper.FileMapper;
+import kaspi.lab.uploadService.metrics.UploadMetrics;
+import kaspi.lab.uploadService.scheduler.OutboxNotificationTrigger;
+import kaspi.lab.uploadService.tracing.OutboxTracing;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Записывает файлы и события FILE_UPLOADED в outbox многострочными INSERT в одной транзакции.
+ * Одиночные save, пришедшие с разницей в несколько миллисекунд, копятся в пачку
+ * (write-batch-size / write-batch-delay) и коммитятся вместе; Mono каждого вызывающего
+ * завершается после коммита его пачки.
+ */
+@Slf4j
+@Component
+public class FileOutboxWriter implements DisposableBean {
+
+    // Postgres принимает не больше 65535 параметров в запросе, поэтому большие пачки режем на куски
+    private static final int INSERT_CHUNK_SIZE = 1000;
+
+    // Файл, который уже лежит в MinIO (режим stream), а не во временном каталоге
+    public static final String STORAGE_PREFIX = "minio://";
+
+    private record PendingWrite(FileEntity entity, Sinks.One<FileEntity> done) {}
+
+    private final FileMapper fileMapper;
+    private final DatabaseClient databaseClient;
+    private final TransactionalOperator transactionalOperator;
+    private final AppUploadProperties props;
+    private final UploadMetrics uploadMetrics;
+    private final OutboxTracing outboxTracing;
+    private final Sinks.Many<PendingWrite> writes = Sinks.many().unicast().onBackpressureBuffer();
+    private final Disposable subscription;
+
+    public FileOutboxWriter(
+            FileMapper fileMapper,
+            DatabaseClient databaseClient,
+            TransactionalOperator transactionalOperator,
+            AppUploadProperties props,
+            UploadMetrics uploadMetrics,
+            OutboxTracing outboxTracing) {
+        this.fileMapper = fileMapper;
+        this.databaseClient = databaseClient;
+        this.transactionalOperator = transactionalOperator;
+        this.props = props;
+        this.uploadMetrics = uploadMetrics;
+        this.outboxTracing = outboxTracing;
+        this.subscription = writes.asFlux()
+                .bufferTimeout(props.getWriteBatchSize(), props.getWriteBatchDelay(), true)
+                .concatMap(this::flush)
+                .subscribe();
+    }
+
+    public Mono<FileEntity> save(FileEntity entity) {
+        return Mono.defer(() -> {
+            // Пачка пишется из другого потока, поэтому trace запроса запоминается до постановки в очередь
+            captureTrace(entity);
+            Sinks.One<FileEntity> done = Sinks.one();
+            // emitNext зовётся из разных потоков, busyLooping переживает FAIL_NON_SERIALIZED
+            writes.emitNext(new PendingWrite(entity, done), Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+            return done.asMono();
+        });
+    }
+
+    /**
+     * Пачка от одного запроса (bulk-загрузка) пишется сразу, без ожидания в очереди.
+     */
+    public Mono<List<FileEntity>> saveAll(List<FileEntity> entities) {
+        if (entities.isEmpty()) {
+            return Mono.just(entities);
+        }
+        entities.forEach(this::captureTrace);
+        return uploadMetrics.timeDbWrite(entities.size(), insertAll(entities)
+                        .as(transactionalOperator::transactional)
+                        .thenReturn(entities));
+    }
+
+    private void captureTrace(FileEntity entity) {
+        if (entity.getTraceContext() == null) {
+            entity.setTraceContext(outboxTracing.currentTraceContext());
+        }
+    }
+
+    private Mono<Void> flush(List<PendingWrite> batch) {
+        List<FileEntity> entities = batch.stream().map(PendingWrite::entity).toList();
+        return saveAll(entities)
+                .doOnSuccess(ignored -> {
+                    log.debug("Flushed {} file writes", batch.size());
+                    batch.forEach(write -> write.done().tryEmitValue(write.entity()));
+                })
+                .then()
+                .onErrorResume(err -> {
+                    if (batch.size() == 1) {
+                        batch.get(0).done().tryEmitError(err);
+                        return Mono.empty();
+                    }
+                    // Одна плохая строка (например, повторный idempotency_key) не должна валить соседей:
+                    // повторяем каждую запись отдельной транзакцией, ошибку получает только её владелец
+                    log.warn("Batch of {} file writes failed, retrying one by one", batch.size(), err);
+                    return Flux.fromIterable(batch)
+                            .concatMap(write -> saveAll(List.of(write.entity()))
+                                    .doOnSuccess(ignored -> write.done().tryEmitValue(write.entity()))
+                                    .onErrorResume(e -> {
+                                        write.done().tryEmitError(e);
+                                        return Mono.empty();
+                                    }))
+                            .then();
+                });
+    }
+
+    private Mono<Void> insertAll(List<FileEntity> entities) {
+        return Flux.fromIterable(chunks(entities))
+                .concatMap(chunk -> insertFiles(chunk)
+                        .then(Mono.fromCallable(() -> chunk.stream().map(this::toOutbox).toList()))
+                        .flatMap(this::insertOutbox))
+                // Один NOTIFY на всю пачку
+                .then(notifyRelay());
+    }
+
+    private Mono<Void> insertFiles(List<FileEntity> files) {
+        StringBuilder sql = new StringBuilder("INSERT INTO files (id, idempotency_key, filename, content_type, size, ")
+                .append("status, storage_path, content_hash, created_at) VALUES ");
+        appendPlaceholders(sql, files.size(), 9);
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int i = 0; i < files.size(); i++) {
+            FileEntity file = files.get(i);
+            int p = i * 9;
+            spec = bind(spec, p, file.getId(), UUID.class);
+            spec = bind(spec, p + 1, file.getIdempotencyKey(), String.class);
+            spec = bind(spec, p + 2, file.getFilename(), String.class);
+            spec = bind(spec, p + 3, file.getContentType(), String.class);
+            spec = bind(spec, p + 4, file.getSize(), Long.class);
+            spec = bind(spec, p + 5, file.getStatus(), String.class);
+            spec = bind(spec, p + 6, file.getStoragePath(), String.class);
+            spec = bind(spec, p + 7, file.getContentHash(), String.class);
+            spec = bind(spec, p + 8, file.getCreatedAt(), Instant.class);
+        }
+        return spec.then();
+    }
+
+    private Mono<Void> insertOutbox(List<OutboxEntity> events) {
+        StringBuilder sql = new StringBuilder("INSERT INTO outbox (event_type, aggregate_id, payload_bin, trace_context, status, created_at) VALUES ");
+        appendPlaceholders(sql, events.size(), 6);
+
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(sql.toString());
+        for (int i = 0; i < events.size(); i++) {
+            OutboxEntity event = events.get(i);
+            int p = i * 6;
+            spec = spec.bind(p, event.getEventType())
+                    .bind(p + 1, event.getAggregateId())
+                    .bind(p + 2, event.getPayloadBin());
+            spec = bind(spec, p + 3, event.getTraceContext(), String.class);
+            spec = spec.bind(p + 4, event.getStatus())
+                    .bind(p + 5, event.getCreatedAt());
+        }
+        return spec.then();
+    }
+
+    private OutboxEntity toOutbox(FileEntity file) {
+        String storagePath = file.getStoragePath();
+        FileUploadedEvent event = storagePath.startsWith(STORAGE_PREFIX)
+                ? fileMapper.toStoredEvent(file, storagePath.substring(STORAGE_PREFIX.length()))
+                : fileMapper.toEvent(file, storagePath);
+        return OutboxEntity.builder()
+                .eventType("FILE_UPLOADED")
+                .aggregateId(file.getId().toString())
+                .payloadBin(FileUploadedEventCodec.encode(event))
+                .traceContext(file.getTraceContext())
+                .status("NEW")
+                .createdAt(Instant.now())
+                .build();
+    }
+
+    // NOTIFY внутри транзакции доставляется слушателям только после коммита
+    private Mono<Void> notifyRelay() {
+        if (!props.isOutboxNotifyEnabled()) {
+            return Mono.empty();
+        }
+        return databaseClient.sql("NOTIFY " + OutboxNotificationTrigger.CHANNEL).then();
+    }
+
+    private static void appendPlaceholders(StringBuilder sql, int rows, int columns) {
+        for (int i = 0; i < rows; i++) {
+            sql.append(i == 0 ? "(" : ", (");
+            for (int c = 0; c < columns; c++) {
+                sql.append(c == 0 ? "$" : ", $").append(i * columns + c + 1);
+            }
+            sql.append(')');
+        }
+    }
+
+    private static DatabaseClient.GenericExecuteSpec bind(DatabaseClient.GenericExecuteSpec spec, int index, Object value, Class<?> type) {
+        return value != null ? spec.bind(index, value) : spec.bindNull(index, type);
+    }
+
+    private static <T> List<List<T>> chunks(List<T> items) {
+        List<List<T>> chunks = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += INSERT_CHUNK_SIZE) {
+            chunks.add(items.subList(from, Math.min(from + INSERT_CHUNK_SIZE, items.size())));
+        }
+        return chunks;
+    }
+
+    @Override
+    public void destroy() {
+        subscription.dispose();
+    }
+}
@@ -0,0 +1,14 @@
+package kaspi.lab.uploadService.service;
+
+import kaspi.lab.uploadService.dto.response.FileStatusResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+public interface FileStatusService {
+    Mono<FileStatusResponse> getStatus(UUID fileId);
+
+    // Текущий статус, а затем каждое изменение, пока файл не перейдёт в COMPLETED/FAILED
+    Flux<FileStatusResponse> statusEvents(UUID fileId);
+}
@@ -0,0 +1,185 @@
+package kaspi.lab.uploadService.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Идемпотентное выполнение запроса: первый успешный ответ сохраняется под ключом
+ * и отдаётся повторно на все ретраи с тем же ключом, пока не истечёт idempotency-ttl.
+ *
+ * Ключ проверяется в три уровня:
+ * Caffeine с недавними ответами отдаёт повтор без сетевых запросов,
+ * Redis хранит маркер IN_PROGRESS на время первого запроса, а затем его ответ,
+ * а при недоступном Redis результат всегда ищется в files: локальные структуры не переживают
+ * рестарт и не видны другим инстансам, так что отсутствие ключа в них ничего не доказывает.
+ * Последняя линия защиты - уникальный индекс на files.idempotency_key.
+ *
+ * Ответы разных эндпоинтов имеют разные типы, поэтому ключ живёт в пространстве эндпоинта
+ * (scope): тот же ключ на другом эндпоинте - это другой запрос, а не повтор с чужим ответом.
+ */
+@Slf4j
+@Component
+public class IdempotencyGuard {
+
+    private static final String IDEMPOTENCY_PREFIX = "idempotency:";
+    private static final String IN_PROGRESS = "IN_PROGRESS";
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(200);
+
+    private enum Acquire { ACQUIRED, TAKEN, UNAVAILABLE }
+
+    private static final class StillInProgress extends RuntimeException {
+        StillInProgress() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final Duration ttl;
+    private final Duration inProgressTtl;
+    private final Duration waitTimeout;
+    // Ключ -> JSON ответа; вес считается по длине, чтобы большие ответы пачек не съели память
+    private final Cache<String, String> completed;
+
+    public IdempotencyGuard(
+            AppUploadProperties props,
+            ReactiveStringRedisTemplate redisTemplate,
+            ObjectMapper objectMapper) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.ttl = Duration.ofSeconds(props.getIdempotencyTtl());
+        this.inProgressTtl = Duration.ofSeconds(props.getIdempotencyInProgressTtl());
+        this.waitTimeout = Duration.ofSeconds(props.getIdempotencyWaitTimeout());
+        this.completed = Caffeine.newBuilder()
+                .maximumWeight(props.getIdempotencyCacheMaxSize().toBytes())
+                .weigher((String key, String json) -> key.length() + json.length())
+                .expireAfterWrite(ttl)
+                .build();
+    }
+
+    /**
+     * @param scope        эндпоинт, в пространстве которого живёт ключ
+     * @param action       выполняет запрос, вызывается только для первого запроса с этим ключом
+     * @param storedResult восстанавливает ответ из files, если Redis недоступен или ключ в нём уже истёк;
+     *                     пустой Mono - результата нет
+     */
+    public <T> Mono<T> execute(String scope, String idempotencyKey, TypeReference<T> type,
+                               Supplier<Mono<T>> action, Supplier<Mono<T>> storedResult) {
+        return execute(scope + ":" + idempotencyKey, type, action, storedResult);
+    }
+
+    private <T> Mono<T> execute(String scopedKey, TypeReference<T> type,
+                                Supplier<Mono<T>> action, Supplier<Mono<T>> storedResult) {
+        String cached = completed.getIfPresent(scopedKey);
+        if (cached != null) {
+            log.debug("Replaying response for idempotency key {} from local cache", scopedKey);
+            return decode(cached, type);
+        }
+
+        String redisKey = IDEMPOTENCY_PREFIX + scopedKey;
+        return redisTemplate.opsForValue()
+                .setIfAbsent(redisKey, IN_PROGRESS, inProgressTtl)
+                .map(acquired -> acquired ? Acquire.ACQUIRED : Acquire.TAKEN)
+                .onErrorResume(RedisConnectionFailureException.class, e -> {
+                    log.warn("Redis unavailable, looking up idempotency key {} in the database", scopedKey);
+                    return Mono.just(Acquire.UNAVAILABLE);
+                })
+                .flatMap(acquire -> switch (acquire) {
+                    case ACQUIRED -> runAndStore(scopedKey, redisKey, action, storedResult);
+                    case TAKEN -> awaitResult(redisKey, type)
+                            // Пустой результат - первый запрос упал и ключ освобождён, пробуем сами
+                            .switchIfEmpty(Mono.defer(() -> execute(scopedKey, type, action, storedResult)));
+                    case UNAVAILABLE -> runWithoutRedis(scopedKey, action, storedResult);
+                });
+    }
+
+    private <T> Mono<T> runAndStore(String idempotencyKey, String redisKey,
+                                    Supplier<Mono<T>> action, Supplier<Mono<T>> storedResult) {
+        return Mono.defer(() -> {
+                    // Загрузка в несколько ГБ идёт дольше idempotency-in-progress-ttl - пока она жива, маркер продлевается.
+                    // Продление снимается до сохранения ответа, чтобы не урезать TTL уже записанного результата
+                    Disposable keepAlive = keepInProgress(redisKey);
+                    return action.get()
+                            .doOnTerminate(keepAlive::dispose)
+                            .doOnCancel(keepAlive::dispose);
+                })
+                .onErrorResume(DataIntegrityViolationException.class, e -> replayStored(storedResult, e))
+                .flatMap(result -> encode(result)
+                        .flatMap(json -> redisTemplate.opsForValue().set(redisKey, json, ttl)
+                                .onErrorResume(e -> {
+                                    log.warn("Could not store response for idempotency key {}", idempotencyKey, e);
+                                    return Mono.just(false);
+                                })
+                                .doOnNext(ignored -> completed.put(idempotencyKey, json)))
+                        .thenReturn(result))
+                // Неудачный запрос не должен блокировать ретраи до истечения маркера
+                .onErrorResume(err -> redisTemplate.delete(redisKey)
+                        .onErrorResume(e -> Mono.just(0L))
+                        .then(Mono.error(err)));
+    }
+
+    private Disposable keepInProgress(String redisKey) {
+        return Flux.interval(inProgressTtl.dividedBy(3))
+                .concatMap(tick -> redisTemplate.expire(redisKey, inProgressTtl)
+                        .onErrorResume(e -> {
+                            log.warn("Could not extend in-progress marker {}", redisKey, e);
+                            return Mono.just(false);
+                        }))
+                .subscribe();
+    }
+
+    private <T> Mono<T> awaitResult(String redisKey, TypeReference<T> type) {
+        return redisTemplate.opsForValue().get(redisKey)
+                .flatMap(value -> IN_PROGRESS.equals(value) ? Mono.<String>error(new StillInProgress()) : Mono.just(value))
+                .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, POLL_INTERVAL)
+                        .filter(StillInProgress.class::isInstance))
+                .timeout(waitTimeout)
+                .onErrorMap(TimeoutException.class, e -> new ResponseStatusException(
+                        HttpStatus.CONFLICT, "Request with this idempotency key is still in progress"))
+                .flatMap(json -> decode(json, type));
+    }
+
+    private <T> Mono<T> runWithoutRedis(String idempotencyKey, Supplier<Mono<T>> action, Supplier<Mono<T>> storedResult) {
+        // Ключ мог прийти на другой инстанс или до рестарта - без запроса в files его не отличить от нового
+        return storedResult.get()
+                .doOnNext(result -> log.debug("Replaying stored response for idempotency key {}", idempotencyKey))
+                .switchIfEmpty(Mono.defer(action))
+                .onErrorResume(DataIntegrityViolationException.class, e -> replayStored(storedResult, e));
+    }
+
+    // Ключ уже есть в files (истёк в Redis или конкурент без Redis успел раньше) - отдаём сохранённый результат
+    private <T> Mono<T> replayStored(Supplier<Mono<T>> storedResult, DataIntegrityViolationException cause) {
+        return storedResult.get().switchIfEmpty(Mono.error(cause));
+    }
+
+    private <T> Mono<String> encode(T result) {
+        try {
+            return Mono.just(objectMapper.writeValueAsString(result));
+        } catch (JsonProcessingException e) {
+            return Mono.error(new RuntimeException("Failed to serialize idempotent response", e));
+        }
+    }
+
+    private <T> Mono<T> decode(String json, TypeReference<T> type) {
+        return Mono.fromCallable(() -> objectMapper.readValue(json, type));
+    }
+}
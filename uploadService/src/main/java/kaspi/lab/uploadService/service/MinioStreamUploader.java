@@ -0,0 +1,107 @@
+package kaspi.lab.uploadService.service;
+
+import io.minio.BucketExistsArgs;
+import io.minio.MakeBucketArgs;
+import io.minio.MinioClient;
+import io.minio.PutObjectArgs;
+import io.minio.RemoveObjectArgs;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.InputStream;
+
+/**
+ * Загружает тело multipart-части прямо в MinIO, без промежуточного файла.
+ * Поток режется на части размером stream-part-size; MinIO-клиент сам
+ * отправляет их через S3 multipart upload. Из запроса одновременно
+ * запрашивается не больше stream-prefetch буферов, так что медленный MinIO
+ * тормозит чтение сокета клиента, а не раздувает память.
+ * Заявленный клиентом размер в MinIO не передаётся: с точной длиной клиент MinIO дочитал бы
+ * ровно столько байт, и объект разошёлся бы с посчитанными по всему телу размером и хешем.
+ * Тело читается до конца, а превышение заявленного размера отсекает вызывающий.
+ * Клиент MinIO блокирующий, и загрузка держит поток всё время, пока клиент шлёт тело.
+ * Поэтому у загрузок свой пул по admission-max-in-flight: общий boundedElastic (10 потоков
+ * на ядро) они заняли бы целиком, и встали бы выделение временных файлов и кеш скачиваний.
+ */
+@Slf4j
+@Component
+public class MinioStreamUploader implements DisposableBean {
+
+    private static final int QUEUED_TASKS = 100_000;
+
+    private final MinioClient minioClient;
+    private final AppUploadProperties props;
+    private final Scheduler scheduler;
+
+    @Value("${app.minio.bucket:uploads}")
+    private String bucket;
+
+    private volatile boolean bucketReady;
+
+    public MinioStreamUploader(MinioClient minioClient, AppUploadProperties props) {
+        this.minioClient = minioClient;
+        this.props = props;
+        this.scheduler = Schedulers.newBoundedElastic(props.getAdmissionMaxInFlight(), QUEUED_TASKS, "minio-stream");
+    }
+
+    public Mono<Void> upload(Flux<DataBuffer> content, String contentType, String objectName) {
+        return Mono.fromCallable(() -> {
+            ensureBucket();
+
+            log.info("Streaming file to MinIO: bucket={}, object={}", bucket, objectName);
+            try (InputStream in = DataBufferUtils.subscriberInputStream(content, props.getStreamPrefetch())) {
+                minioClient.putObject(
+                        PutObjectArgs.builder()
+                                .bucket(bucket)
+                                .object(objectName)
+                                .stream(in, -1, props.getStreamPartSize().toBytes())
+                                .contentType(contentType)
+                                .build());
+            }
+
+            return objectName;
+        }).subscribeOn(scheduler).then();
+    }
+
+    /**
+     * Удаляет объект, записанный upload(), если файл так и не был зарегистрирован.
+     * Ошибка только логируется: вызывающий уже завершается своей ошибкой.
+     */
+    public Mono<Void> removeQuietly(String objectName) {
+        return Mono.fromRunnable(() -> {
+                    try {
+                        minioClient.removeObject(RemoveObjectArgs.builder().bucket(bucket).object(objectName).build());
+                        log.info("Removed orphaned streamed object: bucket={}, object={}", bucket, objectName);
+                    } catch (Exception e) {
+                        log.warn("Could not remove streamed object: {}", objectName, e);
+                    }
+                })
+                .subscribeOn(scheduler)
+                .then();
+    }
+
+    private void ensureBucket() throws Exception {
+        if (bucketReady) {
+            return;
+        }
+        boolean found = minioClient.bucketExists(BucketExistsArgs.builder().bucket(bucket).build());
+        if (!found) {
+            minioClient.makeBucket(MakeBucketArgs.builder().bucket(bucket).build());
+        }
+        bucketReady = true;
+    }
+
+    @Override
+    public void destroy() {
+        scheduler.dispose();
+    }
+}
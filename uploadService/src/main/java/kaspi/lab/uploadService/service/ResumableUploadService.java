@@ -0,0 +1,20 @@
+package kaspi.lab.uploadService.service;
+
+import kaspi.lab.uploadService.dto.request.UploadSessionRequest;
+import kaspi.lab.uploadService.dto.response.FileUploadResponse;
+import kaspi.lab.uploadService.dto.response.UploadSessionResponse;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.UUID;
+
+public interface ResumableUploadService {
+    Mono<UploadSessionResponse> createSession(UploadSessionRequest request, String idempotencyKey);
+
+    Mono<UploadSessionResponse> getSession(UUID sessionId);
+
+    Mono<UploadSessionResponse> appendChunk(UUID sessionId, long offset, Flux<DataBuffer> chunk);
+
+    Mono<FileUploadResponse> complete(UUID sessionId);
+}
@@ -0,0 +1,148 @@
+package kaspi.lab.uploadService.service;
+
+import jakarta.annotation.PostConstruct;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Размещение временных файлов загрузок. Файл кладётся в подкаталоги по префиксу UUID
+ * (<mount>/ab/cd/<uuid>), чтобы в одном каталоге не копились сотни тысяч записей.
+ * Точка монтирования выбирается случайно с весом по свободному месту, так что запись
+ * расходится по всем дискам, а заполненные получают меньше. Если клиент заявил размер,
+ * место под него проверяется и резервируется до того, как прочитан первый байт.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class TempStorageManager {
+
+    private final AppUploadProperties props;
+
+    private final List<Mount> mounts = new ArrayList<>();
+    private final Set<Path> createdShards = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Место, занятое под загрузку. reserved - заявленный размер, который ещё не виден
+     * в свободном месте файловой системы; снимается через release().
+     */
+    public record Allocation(Path path, long reserved, Mount mount) {}
+
+    // reserved - сумма заявленных размеров загрузок, которые ещё пишутся на этот диск
+    public record Mount(Path root, AtomicLong reserved) {}
+
+    @PostConstruct
+    void init() throws IOException {
+        for (Path root : props.tempMounts()) {
+            Files.createDirectories(root);
+            mounts.add(new Mount(root, new AtomicLong()));
+        }
+        log.info("Temp storage mounts: {}", mounts.stream().map(Mount::root).toList());
+    }
+
+    /**
+     * Выбирает диск и создаёт файл. При declaredSize > 0 файл сразу растягивается до этого
+     * размера, а если ни на одном диске не хватает места (с учётом temp-min-free) - 507.
+     */
+    public Mono<Allocation> allocate(UUID id, long declaredSize) {
+        return Mono.fromCallable(() -> {
+                    long size = Math.max(declaredSize, 0);
+                    Mount mount = choose(size);
+                    Path path = pathFor(mount.root(), id);
+                    try {
+                        createFile(path, size);
+                    } catch (IOException | RuntimeException e) {
+                        mount.reserved().addAndGet(-size);
+                        throw e;
+                    }
+                    return new Allocation(path, size, mount);
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    // Наибольшее место, которое сейчас можно выделить одному файлу; делает statfs, так что не для event loop
+    public long maxAvailable() throws IOException {
+        long minFree = props.getTempMinFree().toBytes();
+        long max = 0;
+        for (Mount mount : mounts) {
+            max = Math.max(max, Files.getFileStore(mount.root()).getUsableSpace() - mount.reserved().get() - minFree);
+        }
+        return max;
+    }
+
+    public void release(Allocation allocation) {
+        if (allocation.reserved() > 0) {
+            allocation.mount().reserved().addAndGet(-allocation.reserved());
+        }
+    }
+
+    // Проверка места и резерв - одна операция, иначе параллельные загрузки займут одно и то же место
+    private synchronized Mount choose(long size) throws IOException {
+        long minFree = props.getTempMinFree().toBytes();
+        long[] weights = new long[mounts.size()];
+        long total = 0;
+        for (int i = 0; i < mounts.size(); i++) {
+            Mount mount = mounts.get(i);
+            long available = Files.getFileStore(mount.root()).getUsableSpace() - mount.reserved().get() - minFree;
+            weights[i] = available >= size ? available : 0;
+            total += weights[i];
+        }
+        if (total == 0) {
+            throw new ResponseStatusException(HttpStatus.INSUFFICIENT_STORAGE,
+                    "Not enough temp storage for " + size + " bytes");
+        }
+
+        long pick = ThreadLocalRandom.current().nextLong(total);
+        for (int i = 0; i < weights.length; i++) {
+            pick -= weights[i];
+            if (pick < 0) {
+                Mount mount = mounts.get(i);
+                mount.reserved().addAndGet(size);
+                return mount;
+            }
+        }
+        throw new IllegalStateException("No temp mount was picked");
+    }
+
+    private Path pathFor(Path root, UUID id) throws IOException {
+        String name = id.toString();
+        Path dir = root;
+        for (int level = 0; level < props.getTempShardLevels(); level++) {
+            dir = dir.resolve(name.substring(level * 2, level * 2 + 2));
+        }
+        // Каталоги шардов только создаются и никогда не удаляются, поэтому проверяем каждый один раз
+        if (!createdShards.contains(dir)) {
+            Files.createDirectories(dir);
+            createdShards.add(dir);
+        }
+        return dir.resolve(name);
+    }
+
+    // В JDK нет fallocate, поэтому setLength: длина файла известна файловой системе с самого
+    // начала, а от переполнения диска, пока блоки ещё не выделены, защищает резерв в Mount
+    private static void createFile(Path path, long size) throws IOException {
+        Files.createFile(path);
+        if (size > 0) {
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+                file.setLength(size);
+            }
+        }
+    }
+}
@@ -3,8 +3,13 @@ package kaspi.lab.uploadService.service;
 import kaspi.lab.uploadService.dto.request.FileUploadRequest;
 import kaspi.lab.uploadService.dto.response.FileUploadResponse;
 import org.springframework.http.codec.multipart.FilePart;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 public interface UploadService {
     Mono<FileUploadResponse> processUpload(FilePart filePart, FileUploadRequest request, String idempotencyKey);
+
+    Mono<List<FileUploadResponse>> processBatch(Flux<FilePart> fileParts, String idempotencyKey);
 }
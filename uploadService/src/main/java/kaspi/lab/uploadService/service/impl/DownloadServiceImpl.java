@@ -0,0 +1,149 @@
+package kaspi.lab.uploadService.service.impl;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.google.common.io.ByteStreams;
+import io.minio.GetObjectArgs;
+import io.minio.MinioClient;
+import kaspi.lab.eventContract.ContentEncodings;
+import kaspi.lab.uploadService.cache.ObjectDiskCache;
+import kaspi.lab.uploadService.domain.FileEntity;
+import kaspi.lab.uploadService.domain.FileStatus;
+import kaspi.lab.uploadService.dto.response.FileDownload;
+import kaspi.lab.uploadService.repository.FileRepository;
+import kaspi.lab.uploadService.service.DownloadService;
+import kaspi.lab.uploadService.service.FileOutboxWriter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DownloadServiceImpl implements DownloadService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileRepository fileRepository;
+    private final MinioClient minioClient;
+    private final ObjectDiskCache objectDiskCache;
+
+    @Value("${app.minio.bucket:uploads}")
+    private String bucket;
+
+    @Override
+    public Mono<FileDownload> prepare(UUID fileId) {
+        return fileRepository.findById(fileId)
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found")))
+                .flatMap(file -> {
+                    if (!FileStatus.COMPLETED.name().equals(file.getStatus())
+                            || !file.getStoragePath().startsWith(FileOutboxWriter.STORAGE_PREFIX)) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.CONFLICT, "File is not available yet"));
+                    }
+
+                    String objectName = file.getStoragePath().substring(FileOutboxWriter.STORAGE_PREFIX.length());
+                    Path cachedFile = objectDiskCache.lookup(objectName).orElse(null);
+
+                    // Старые записи хранят size = 0, для них размер считается неизвестным
+                    long size = file.getOriginalSize() != null ? file.getOriginalSize()
+                            : file.getSize() != null && file.getSize() > 0 ? file.getSize() : -1;
+                    if (size < 0 && cachedFile != null) {
+                        size = cachedFile.toFile().length();
+                    }
+
+                    return Mono.just(FileDownload.builder()
+                            .fileId(file.getId())
+                            .filename(file.getFilename())
+                            .contentType(file.getContentType())
+                            .size(size)
+                            .objectName(objectName)
+                            .contentEncoding(file.getContentEncoding())
+                            .etag(etag(file))
+                            .cachedFile(cachedFile)
+                            .build());
+                });
+    }
+
+    @Override
+    public Flux<DataBuffer> stream(FileDownload download, long offset, long length) {
+        // В дисковый кэш кладётся уже распакованное содержимое, чтобы его можно было отдавать через sendfile
+        objectDiskCache.recordMiss(download.objectName(), download.size(), () -> openContent(download, 0, -1));
+
+        // Объект читается из MinIO кусками по BUFFER_SIZE по мере того, как клиент их забирает
+        return DataBufferUtils.readInputStream(
+                        () -> openContent(download, offset, length),
+                        DefaultDataBufferFactory.sharedInstance,
+                        BUFFER_SIZE)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public void release(FileDownload download) {
+        if (download.cachedFile() != null) {
+            objectDiskCache.unpin(download.objectName());
+        }
+    }
+
+    /**
+     * Сжатый объект распаковывается потоком. Range задан в байтах исходного содержимого,
+     * поэтому сжатый объект читается с начала, а до offset распакованные байты пропускаются.
+     */
+    private InputStream openContent(FileDownload download, long offset, long length) throws Exception {
+        if (download.contentEncoding() == null) {
+            return openObject(download.objectName(), offset, length);
+        }
+
+        InputStream in = decoder(download.contentEncoding(), openObject(download.objectName(), 0, -1));
+        try {
+            in.skipNBytes(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return length >= 0 ? ByteStreams.limit(in, length) : in;
+    }
+
+    private InputStream decoder(String encoding, InputStream raw) throws IOException {
+        try {
+            return switch (encoding) {
+                case ContentEncodings.ZSTD -> new ZstdInputStream(new BufferedInputStream(raw, BUFFER_SIZE));
+                case ContentEncodings.GZIP -> new GZIPInputStream(raw, BUFFER_SIZE);
+                default -> throw new IOException("Unsupported content encoding: " + encoding);
+            };
+        } catch (IOException e) {
+            raw.close();
+            throw e;
+        }
+    }
+
+    private InputStream openObject(String objectName, long offset, long length) throws Exception {
+        GetObjectArgs.Builder args = GetObjectArgs.builder()
+                .bucket(bucket)
+                .object(objectName)
+                .offset(offset);
+        if (length >= 0) {
+            args.length(length);
+        }
+        return minioClient.getObject(args.build());
+    }
+
+    // Содержимое по id не меняется, так что хеш (или сам id) - сильный ETag
+    private String etag(FileEntity file) {
+        return "\"" + (file.getContentHash() != null ? file.getContentHash() : file.getId().toString()) + "\"";
+    }
+}
@@ -0,0 +1,186 @@
+package kaspi.lab.uploadService.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import kaspi.lab.eventContract.FileStatusNotifications;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.domain.FileStatus;
+import kaspi.lab.uploadService.dto.response.FileStatusResponse;
+import kaspi.lab.uploadService.mapper.FileMapper;
+import kaspi.lab.uploadService.notification.PostgresNotificationListener;
+import kaspi.lab.uploadService.repository.FileRepository;
+import kaspi.lab.uploadService.service.FileStatusService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.UUID;
+
+/**
+ * Статус файла читается через два уровня кэша: Caffeine в процессе и Redis, общий для инстансов.
+ * processingService шлёт NOTIFY file_status на каждое изменение статуса - по нему кэши
+ * сбрасываются, а подписчики SSE получают новый статус. Уведомление может потеряться
+ * (например, пока слушатель переподключается), поэтому подписка ещё и сама перечитывает
+ * статус из БД раз в status-recheck-interval и закрывается не позже status-events-timeout.
+ */
+@Slf4j
+@Service
+public class FileStatusServiceImpl implements FileStatusService, DisposableBean {
+
+    private static final String STATUS_PREFIX = "file-status:";
+    // PENDING может смениться в любой момент, поэтому в Redis живёт недолго и в Caffeine не кладётся
+    private static final Duration PENDING_TTL = Duration.ofSeconds(2);
+
+    private final FileRepository fileRepository;
+    private final FileMapper fileMapper;
+    private final ObjectMapper objectMapper;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final PostgresNotificationListener notificationListener;
+    private final Duration statusTtl;
+    private final Duration recheckInterval;
+    private final Duration eventsTimeout;
+    private final Cache<UUID, FileStatusResponse> localCache;
+    private final Sinks.Many<UUID> changes = Sinks.many().multicast().directBestEffort();
+
+    private Disposable subscription;
+
+    public FileStatusServiceImpl(
+            FileRepository fileRepository,
+            FileMapper fileMapper,
+            ObjectMapper objectMapper,
+            ReactiveStringRedisTemplate redisTemplate,
+            PostgresNotificationListener notificationListener,
+            AppUploadProperties props) {
+        this.fileRepository = fileRepository;
+        this.fileMapper = fileMapper;
+        this.objectMapper = objectMapper;
+        this.redisTemplate = redisTemplate;
+        this.notificationListener = notificationListener;
+        this.statusTtl = Duration.ofSeconds(props.getStatusCacheTtl());
+        this.recheckInterval = props.getStatusRecheckInterval();
+        this.eventsTimeout = props.getStatusEventsTimeout();
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(statusTtl)
+                .build();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        // Подписка одна на инстанс: её ошибка остановила бы сброс кэшей и SSE до рестарта,
+        // поэтому битый payload пропускается, а любая другая ошибка ведёт к переподписке
+        subscription = notificationListener.listen(FileStatusNotifications.CHANNEL)
+                .concatMap(payload -> Mono.fromCallable(() -> FileStatusNotifications.fileId(payload))
+                        .onErrorResume(IllegalArgumentException.class, e -> {
+                            log.warn("Skipping malformed file status notification: {}", payload);
+                            return Mono.empty();
+                        })
+                        .flatMap(this::evict))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .doBeforeRetry(signal -> log.error("File status notification stream failed, resubscribing", signal.failure())))
+                .subscribe(fileId -> changes.tryEmitNext(fileId));
+    }
+
+    private Mono<UUID> evict(UUID fileId) {
+        localCache.invalidate(fileId);
+        return redisTemplate.delete(STATUS_PREFIX + fileId)
+                .onErrorResume(e -> {
+                    log.warn("Could not evict cached status of {} from Redis", fileId, e);
+                    return Mono.just(0L);
+                })
+                .thenReturn(fileId);
+    }
+
+    @Override
+    public Mono<FileStatusResponse> getStatus(UUID fileId) {
+        FileStatusResponse local = localCache.getIfPresent(fileId);
+        if (local != null) {
+            return Mono.just(local);
+        }
+
+        return readRedis(fileId)
+                .switchIfEmpty(Mono.defer(() -> loadFromDb(fileId).flatMap(this::writeRedis)))
+                .doOnNext(this::cacheLocally);
+    }
+
+    @Override
+    public Flux<FileStatusResponse> statusEvents(UUID fileId) {
+        // Подписка на изменения оформляется одновременно с чтением текущего статуса,
+        // поэтому переход, случившийся между ними, не теряется
+        Flux<FileStatusResponse> updates = changes.asFlux()
+                .filter(fileId::equals)
+                .concatMap(this::loadFromDb);
+        // Страховка от потерянного NOTIFY и устаревшего PENDING в Redis: БД читается напрямую
+        Flux<FileStatusResponse> rechecks = Flux.interval(recheckInterval)
+                .concatMap(tick -> loadFromDb(fileId));
+
+        return Flux.merge(getStatus(fileId), updates, rechecks)
+                .distinctUntilChanged(FileStatusResponse::status)
+                .takeUntil(this::isTerminal)
+                // Клиент SSE переподключится сам, а зависшая подписка не держит соединение вечно
+                .take(eventsTimeout);
+    }
+
+    private Mono<FileStatusResponse> loadFromDb(UUID fileId) {
+        return fileRepository.findById(fileId)
+                .switchIfEmpty(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found")))
+                .map(fileMapper::toStatusResponse);
+    }
+
+    private Mono<FileStatusResponse> readRedis(UUID fileId) {
+        return redisTemplate.opsForValue().get(STATUS_PREFIX + fileId)
+                .flatMap(json -> Mono.fromCallable(() -> objectMapper.readValue(json, FileStatusResponse.class)))
+                .onErrorResume(e -> {
+                    log.warn("Could not read cached status of {} from Redis", fileId, e);
+                    return Mono.empty();
+                });
+    }
+
+    private Mono<FileStatusResponse> writeRedis(FileStatusResponse status) {
+        String json;
+        try {
+            json = objectMapper.writeValueAsString(status);
+        } catch (JsonProcessingException e) {
+            return Mono.error(new RuntimeException("Failed to serialize file status", e));
+        }
+
+        Duration ttl = isTerminal(status) ? statusTtl : PENDING_TTL;
+        return redisTemplate.opsForValue().set(STATUS_PREFIX + status.fileId(), json, ttl)
+                .onErrorResume(e -> {
+                    log.warn("Could not cache status of {} in Redis", status.fileId(), e);
+                    return Mono.just(false);
+                })
+                .thenReturn(status);
+    }
+
+    private void cacheLocally(FileStatusResponse status) {
+        if (isTerminal(status)) {
+            localCache.put(status.fileId(), status);
+        }
+    }
+
+    private boolean isTerminal(FileStatusResponse status) {
+        return FileStatus.COMPLETED.name().equals(status.status()) || FileStatus.FAILED.name().equals(status.status());
+    }
+
+    @Override
+    public void destroy() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package kaspi.lab.uploadService.service.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.domain.FileEntity;
+import kaspi.lab.uploadService.domain.UploadSession;
+import kaspi.lab.uploadService.dto.request.FileUploadRequest;
+import kaspi.lab.uploadService.dto.request.UploadSessionRequest;
+import kaspi.lab.uploadService.dto.response.FileUploadResponse;
+import kaspi.lab.uploadService.dto.response.UploadSessionResponse;
+import kaspi.lab.uploadService.mapper.FileMapper;
+import kaspi.lab.uploadService.repository.FileRepository;
+import kaspi.lab.uploadService.service.FileOutboxWriter;
+import kaspi.lab.uploadService.service.IdempotencyGuard;
+import kaspi.lab.uploadService.service.ResumableUploadService;
+import kaspi.lab.uploadService.service.TempStorageManager;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.redis.core.ReactiveHashOperations;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ResumableUploadServiceImpl implements ResumableUploadService {
+
+    private final FileMapper fileMapper;
+    private final FileRepository fileRepository;
+    private final AppUploadProperties props;
+    private final IdempotencyGuard idempotencyGuard;
+    private final FileOutboxWriter fileOutboxWriter;
+    private final ReactiveStringRedisTemplate redisTemplate;
+    private final TempStorageManager tempStorageManager;
+
+    private static final TypeReference<UploadSessionResponse> SESSION_RESPONSE_TYPE = new TypeReference<>() {};
+    public static final String SESSION_PREFIX = "upload-session:";
+    private static final String LOCK_PREFIX = "upload-session-lock:";
+    // Лок держится на время записи одного чанка, TTL защищает от зависших нод
+    private static final Duration LOCK_TTL = Duration.ofMinutes(10);
+
+    @Override
+    public Mono<UploadSessionResponse> createSession(UploadSessionRequest request, String idempotencyKey) {
+        // Повтор создания сессии с тем же ключом возвращает ту же сессию
+        return idempotencyGuard.execute("session", idempotencyKey, SESSION_RESPONSE_TYPE,
+                () -> openSession(request, idempotencyKey),
+                Mono::empty);
+    }
+
+    private Mono<UploadSessionResponse> openSession(UploadSessionRequest request, String idempotencyKey) {
+        UUID id = UUID.randomUUID();
+
+        // Файл создаётся сразу длиной в заявленный размер: PATCH пишет в него по смещению,
+        // файл нулевой длины может быть завершён вообще без чанков, а не помещающийся - 507
+        // ещё до первого чанка. Проверка места здесь только приблизительная: чанки сессии могут
+        // прийти на другой инстанс, поэтому резерв снимается сразу после выбора диска, а
+        // разреженный файл места на диске не занимает. Параллельные сессии могут занять один
+        // диск сверх свободного места, и тогда ошибку получит PATCH, а не создание сессии.
+        return tempStorageManager.allocate(id, request.size())
+                .doOnNext(tempStorageManager::release)
+                .flatMap(allocation -> {
+                    UploadSession session = UploadSession.builder()
+                            .id(id)
+                            .idempotencyKey(idempotencyKey)
+                            .filename(request.filename())
+                            .contentType(request.contentType() != null ? request.contentType() : "application/octet-stream")
+                            .size(request.size())
+                            .offset(0)
+                            .path(allocation.path().toString())
+                            .build();
+                    return saveSession(session);
+                });
+    }
+
+    private Mono<UploadSessionResponse> saveSession(UploadSession session) {
+        String key = SESSION_PREFIX + session.id();
+        Map<String, String> fields = Map.of(
+                "idempotencyKey", session.idempotencyKey(),
+                "filename", session.filename(),
+                "contentType", session.contentType(),
+                "size", Long.toString(session.size()),
+                "offset", "0",
+                "path", session.path());
+
+        return hashOps().putAll(key, fields)
+                .then(redisTemplate.expire(key, Duration.ofSeconds(props.getSessionTtl())))
+                .doOnSuccess(ignored -> log.info("Created upload session {} for file: {}", session.id(), session.filename()))
+                .thenReturn(toResponse(session));
+    }
+
+    @Override
+    public Mono<UploadSessionResponse> getSession(UUID sessionId) {
+        return loadSession(sessionId).map(this::toResponse);
+    }
+
+    @Override
+    public Mono<UploadSessionResponse> appendChunk(UUID sessionId, long offset, Flux<DataBuffer> chunk) {
+        return withLock(sessionId, () -> loadSession(sessionId)
+                .flatMap(session -> {
+                    if (session.offset() != offset) {
+                        return Mono.error(new ResponseStatusException(
+                                HttpStatus.CONFLICT, "Offset mismatch: current offset is " + session.offset()));
+                    }
+
+                    // TTL отсчитывается от последнего чанка: медленная, но идущая загрузка не истекает
+                    String key = SESSION_PREFIX + sessionId;
+                    return writeChunk(session, chunk)
+                            .flatMap(written -> hashOps().increment(key, "offset", written))
+                            .flatMap(newOffset -> redisTemplate.expire(key, Duration.ofSeconds(props.getSessionTtl()))
+                                    .thenReturn(toResponse(session.toBuilder().offset(newOffset).build())));
+                }));
+    }
+
+    /**
+     * Повтор complete() (например, ответ потерялся) возвращает уже сохранённый файл: запись
+     * в files имеет id сессии, а сессия могла быть удалена или, если удаление не удалось, остаться.
+     */
+    @Override
+    public Mono<FileUploadResponse> complete(UUID sessionId) {
+        return withLock(sessionId, () -> fileRepository.findById(sessionId)
+                .flatMap(saved -> deleteSession(sessionId).thenReturn(fileMapper.toResponse(saved)))
+                .switchIfEmpty(Mono.defer(() -> completeSession(sessionId))));
+    }
+
+    private Mono<FileUploadResponse> completeSession(UUID sessionId) {
+        return loadSession(sessionId)
+                .flatMap(session -> {
+                    if (session.offset() != session.size()) {
+                        return Mono.error(new ResponseStatusException(
+                                HttpStatus.CONFLICT, "Upload incomplete: " + session.offset() + " of " + session.size() + " bytes received"));
+                    }
+
+                    FileUploadRequest request = FileUploadRequest.builder()
+                            .filename(session.filename())
+                            .contentType(session.contentType())
+                            .size(session.size())
+                            .build();
+
+                    FileEntity entity = fileMapper.toEntity(request, session.idempotencyKey());
+                    entity.setId(session.id());
+                    entity.setStoragePath(tempPath(session).toString());
+
+                    return fileOutboxWriter.save(entity)
+                            .flatMap(saved -> deleteSession(sessionId).thenReturn(saved))
+                            .map(fileMapper::toResponse)
+                            .doOnSuccess(res -> log.info("Upload session {} completed", sessionId));
+                });
+    }
+
+    // Файл уже сохранён, поэтому ошибка удаления сессии не должна превращать ответ в 500: её добьёт TTL
+    private Mono<Void> deleteSession(UUID sessionId) {
+        return redisTemplate.delete(SESSION_PREFIX + sessionId)
+                .doOnError(e -> log.warn("Could not delete completed upload session {}", sessionId, e))
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    /**
+     * Пишет чанк по позиции текущего смещения. Оборванный PATCH не сдвигает offset,
+     * поэтому повтор просто перезапишет тот же участок файла.
+     */
+    private Mono<Long> writeChunk(UploadSession session, Flux<DataBuffer> chunk) {
+        AtomicLong written = new AtomicLong();
+        // Лишний буфер освобождает хук discard, а не этот обработчик
+        Flux<DataBuffer> counted = chunk.<DataBuffer>handle((buffer, sink) -> {
+                    if (session.offset() + written.addAndGet(buffer.readableByteCount()) > session.size()) {
+                        sink.error(new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "Chunk exceeds declared upload length"));
+                        return;
+                    }
+                    sink.next(buffer);
+                })
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+
+        return Mono.using(
+                        () -> AsynchronousFileChannel.open(tempPath(session), StandardOpenOption.WRITE),
+                        channel -> DataBufferUtils.write(counted, channel, session.offset())
+                                .map(DataBufferUtils::release)
+                                .then(),
+                        this::closeQuietly)
+                .then(Mono.fromSupplier(written::get));
+    }
+
+    private <T> Mono<T> withLock(UUID sessionId, Supplier<Mono<T>> action) {
+        String lockKey = LOCK_PREFIX + sessionId;
+        return Mono.usingWhen(
+                redisTemplate.opsForValue().setIfAbsent(lockKey, "1", LOCK_TTL)
+                        .flatMap(acquired -> acquired
+                                ? Mono.just(lockKey)
+                                : Mono.<String>error(new ResponseStatusException(
+                                        HttpStatus.CONFLICT, "Another request is writing to this upload session"))),
+                ignored -> action.get(),
+                redisTemplate::delete);
+    }
+
+    private Mono<UploadSession> loadSession(UUID sessionId) {
+        return hashOps().entries(SESSION_PREFIX + sessionId)
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .filter(fields -> !fields.isEmpty())
+                .switchIfEmpty(Mono.error(new ResponseStatusException(
+                        HttpStatus.NOT_FOUND, "Upload session not found or expired")))
+                .map(fields -> UploadSession.builder()
+                        .id(sessionId)
+                        .idempotencyKey(fields.get("idempotencyKey"))
+                        .filename(fields.get("filename"))
+                        .contentType(fields.get("contentType"))
+                        .size(Long.parseLong(fields.get("size")))
+                        .offset(Long.parseLong(fields.get("offset")))
+                        .path(fields.get("path"))
+                        .build());
+    }
+
+    private ReactiveHashOperations<String, String, String> hashOps() {
+        return redisTemplate.opsForHash();
+    }
+
+    // Сессии, созданные до TempStorageManager, лежат плоско в temp-path
+    private Path tempPath(UploadSession session) {
+        return session.path() != null ? Paths.get(session.path()) : Paths.get(props.getTempPath(), session.id().toString());
+    }
+
+    private UploadSessionResponse toResponse(UploadSession session) {
+        return UploadSessionResponse.builder()
+                .sessionId(session.id())
+                .offset(session.offset())
+                .size(session.size())
+                .build();
+    }
+
+    private void closeQuietly(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close temp file channel", e);
+        }
+    }
+}
@@ -1,107 +1,244 @@
 package kaspi.lab.uploadService.service.impl;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.type.TypeReference;
 import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.config.UploadMode;
 import kaspi.lab.uploadService.domain.FileEntity;
-import kaspi.lab.uploadService.domain.OutboxEntity;
 import kaspi.lab.uploadService.dto.request.FileUploadRequest;
 import kaspi.lab.uploadService.dto.response.FileUploadResponse;
-import kaspi.lab.uploadService.dto.response.FileUploadedEvent;
 import kaspi.lab.uploadService.mapper.FileMapper;
+import kaspi.lab.uploadService.metrics.UploadMetrics;
 import kaspi.lab.uploadService.repository.FileRepository;
-import kaspi.lab.uploadService.repository.OutboxRepository;
+import kaspi.lab.uploadService.service.FileOutboxWriter;
+import kaspi.lab.uploadService.service.IdempotencyGuard;
+import kaspi.lab.uploadService.service.MinioStreamUploader;
+import kaspi.lab.uploadService.service.TempStorageManager;
 import kaspi.lab.uploadService.service.UploadService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.RedisConnectionFailureException;
-import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.http.HttpStatus;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.Duration;
-import java.time.Instant;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class UploadServiceImpl implements UploadService {
 
-    private final FileRepository fileRepository;
-    private final OutboxRepository outboxRepository;
+    private static final TypeReference<FileUploadResponse> RESPONSE_TYPE = new TypeReference<>() {};
+    private static final TypeReference<List<FileUploadResponse>> BATCH_RESPONSE_TYPE = new TypeReference<>() {};
+
     private final FileMapper fileMapper;
+    private final FileRepository fileRepository;
     private final AppUploadProperties props;
-    private final ObjectMapper objectMapper;
-    private final ReactiveStringRedisTemplate redisTemplate;
-
-    private static final String IDEMPOTENCY_PREFIX = "idempotency:";
+    private final IdempotencyGuard idempotencyGuard;
+    private final FileOutboxWriter fileOutboxWriter;
+    private final MinioStreamUploader minioStreamUploader;
+    private final UploadMetrics uploadMetrics;
+    private final TempStorageManager tempStorageManager;
 
     @Override
-    @Transactional
     public Mono<FileUploadResponse> processUpload(FilePart filePart, FileUploadRequest request, String idempotencyKey) {
+        // Ретрай с тем же ключом получает исходный ответ, а не 409
+        return idempotencyGuard.execute("upload", idempotencyKey, RESPONSE_TYPE,
+                () -> upload(filePart, request, idempotencyKey),
+                () -> fileRepository.findByIdempotencyKey(idempotencyKey).map(fileMapper::toResponse));
+    }
+
+    @Override
+    public Mono<List<FileUploadResponse>> processBatch(Flux<FilePart> fileParts, String idempotencyKey) {
+        // Один ключ и одна проверка в Redis на всю пачку, у файлов ключи вида <key>:<index>
+        return idempotencyGuard.execute("batch", idempotencyKey, BATCH_RESPONSE_TYPE,
+                () -> uploadBatch(fileParts, idempotencyKey),
+                () -> findBatch(idempotencyKey));
+    }
+
+    private Mono<FileUploadResponse> upload(FilePart filePart, FileUploadRequest request, String idempotencyKey) {
+        FileEntity entity = fileMapper.toEntity(request, idempotencyKey);
+
+        return store(filePart, entity)
+                .flatMap(stored -> fileOutboxWriter.save(stored)
+                        // Записи нет - временный файл или объект в MinIO никто не заберёт
+                        .onErrorResume(err -> discardQuietly(stored).then(Mono.error(err))))
+                .map(fileMapper::toResponse)
+                .doOnSuccess(res -> {
+                    assert res != null;
+                    log.info("File successfully processed: {}", res.fileId());
+                })
+                .doOnError(err -> log.error("Failed to process file", err));
+    }
+
+    private Mono<List<FileUploadResponse>> uploadBatch(Flux<FilePart> fileParts, String idempotencyKey) {
+        List<FileEntity> stored = new ArrayList<>();
 
-        return checkIdempotency(idempotencyKey)
-                .flatMap(allowed -> {
-                    if (!allowed) {
-                        return Mono.error(new ResponseStatusException(
-                                HttpStatus.CONFLICT, "Duplicate request: idempotency key already used"));
+        // Части multipart приходят из одного потока запроса, поэтому пишем их строго по очереди
+        return fileParts.index()
+                .concatMap(indexed -> {
+                    if (indexed.getT1() >= props.getBatchMaxFiles()) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE,
+                                "Batch exceeds " + props.getBatchMaxFiles() + " files"));
                     }
+                    FilePart filePart = indexed.getT2();
+                    FileEntity entity = fileMapper.toEntity(FileUploadRequest.from(filePart, null), idempotencyKey + ":" + indexed.getT1());
+                    // Запоминаем до записи, чтобы при ошибке удалить и недописанный файл
+                    stored.add(entity);
+                    return store(filePart, entity);
+                })
+                .collectList()
+                .flatMap(fileOutboxWriter::saveAll)
+                .map(files -> files.stream().map(fileMapper::toResponse).toList())
+                .doOnSuccess(res -> log.info("Batch {} processed: {} files", idempotencyKey, res.size()))
+                .onErrorResume(err -> {
+                    log.error("Failed to process batch {}", idempotencyKey, err);
+                    return Flux.fromIterable(stored)
+                            .concatMap(this::discardQuietly)
+                            .then(Mono.error(err));
+                });
+    }
 
-                    FileEntity entity = fileMapper.toEntity(request, idempotencyKey);
+    private Mono<List<FileUploadResponse>> findBatch(String idempotencyKey) {
+        String prefix = idempotencyKey + ":";
+        return fileRepository.findAllByIdempotencyKeyStartingWith(prefix)
+                .filter(file -> file.getIdempotencyKey().substring(prefix.length()).chars().allMatch(Character::isDigit))
+                .sort(Comparator.comparingLong(file -> Long.parseLong(file.getIdempotencyKey().substring(prefix.length()))))
+                .map(fileMapper::toResponse)
+                .collectList()
+                .filter(files -> !files.isEmpty());
+    }
 
-                    assert entity.getId() != null;
-                    Path targetPath = Paths.get(props.getTempPath(), entity.getId().toString());
+    /**
+     * Пишет содержимое во временный каталог или, в режиме stream, прямо в MinIO,
+     * попутно заполняя размер, SHA-256 и путь хранения. Если запись не удалась
+     * (413, обрыв соединения, ошибка диска), временный файл удаляется: он растянут
+     * до заявленного размера и иначе занимал бы это место до ручной чистки. Объект
+     * в MinIO появляется, только если поток дочитан целиком, и удаляется вызывающим,
+     * если запись о файле потом не сохранилась.
+     */
+    private Mono<FileEntity> store(FilePart filePart, FileEntity entity) {
+        assert entity.getId() != null;
+        if (props.getMode() == UploadMode.STREAM) {
+            return streamToStorage(filePart, entity);
+        }
+
+        // Место выбирается и проверяется до чтения тела: не поместившийся файл получает 507 сразу
+        long declaredSize = entity.getSize() != null ? entity.getSize() : 0;
+        return tempStorageManager.allocate(entity.getId(), declaredSize)
+                .flatMap(allocation -> {
+                    Path targetPath = allocation.path();
                     entity.setStoragePath(targetPath.toString());
 
                     log.info("Starting file upload: {} to {}", entity.getFilename(), targetPath);
 
-                    return filePart.transferTo(targetPath)
-                            .then(saveToDbAndOutbox(entity))
-                            .map(fileMapper::toResponse)
-                            .doOnSuccess(res -> {
-                                assert res != null;
-                                log.info("File successfully processed: {}", res.fileId());
-                            })
-                            .doOnError(err -> log.error("Failed to process file", err));
-                });
+                    // SHA-256 считается на лету, пока части файла пишутся на диск
+                    MessageDigest digest = sha256();
+                    AtomicLong size = new AtomicLong();
+                    Flux<DataBuffer> content = digesting(limited(filePart.content(), declaredSize, size), digest);
+
+                    return uploadMetrics.timeTempWrite(DataBufferUtils.write(content, targetPath, StandardOpenOption.WRITE))
+                            .then(Mono.fromCallable(() -> {
+                                // Файл был растянут до заявленного размера, а пришло меньше
+                                if (size.get() < declaredSize) {
+                                    try (FileChannel channel = FileChannel.open(targetPath, StandardOpenOption.WRITE)) {
+                                        channel.truncate(size.get());
+                                    }
+                                }
+                                entity.setSize(size.get());
+                                uploadMetrics.recordFileSize(size.get());
+                                entity.setContentHash(HexFormat.of().formatHex(digest.digest()));
+                                return entity;
+                            }))
+                            .doFinally(signal -> tempStorageManager.release(allocation));
+                })
+                .onErrorResume(err -> discardQuietly(entity).then(Mono.error(err)))
+                // Отмену нечем дождаться, поэтому удаление только запускается
+                .doOnCancel(() -> discardQuietly(entity).subscribe());
     }
 
-    private Mono<Boolean> checkIdempotency(String idempotencyKey) {
-        Duration ttl = Duration.ofSeconds(props.getIdempotencyTtl());
-        return redisTemplate.opsForValue()
-                .setIfAbsent(IDEMPOTENCY_PREFIX + idempotencyKey, "1", ttl)
-                .defaultIfEmpty(true)
-                .onErrorResume(RedisConnectionFailureException.class, e -> {
-                    log.warn("Redis unavailable, falling back to DB constraint check");
-                    return Mono.just(true);
-                });
+    private Mono<FileEntity> streamToStorage(FilePart filePart, FileEntity entity) {
+        String objectName = entity.getId().toString();
+        log.info("Starting streaming upload: {} to object {}", entity.getFilename(), objectName);
+
+        MessageDigest digest = sha256();
+        AtomicLong size = new AtomicLong();
+        long declaredSize = entity.getSize() != null ? entity.getSize() : 0;
+        Flux<DataBuffer> content = digesting(limited(filePart.content(), declaredSize, size), digest);
+
+        return uploadMetrics.timeTempWrite(minioStreamUploader.upload(content, entity.getContentType(), objectName))
+                .then(Mono.fromCallable(() -> {
+                    entity.setSize(size.get());
+                    uploadMetrics.recordFileSize(size.get());
+                    entity.setContentHash(HexFormat.of().formatHex(digest.digest()));
+                    entity.setStoragePath(FileOutboxWriter.STORAGE_PREFIX + objectName);
+                    return entity;
+                }));
     }
 
-    private Mono<FileEntity> saveToDbAndOutbox(FileEntity entity) {
-        return fileRepository.save(entity)
-                .flatMap(savedFile -> {
+    // Запись о файле не сохранится, поэтому его содержимое никто не заберёт: ни временный файл, ни объект в MinIO
+    private Mono<Void> discardQuietly(FileEntity entity) {
+        String storagePath = entity.getStoragePath();
+        if (storagePath == null) {
+            return Mono.empty();
+        }
+        if (storagePath.startsWith(FileOutboxWriter.STORAGE_PREFIX)) {
+            return minioStreamUploader.removeQuietly(storagePath.substring(FileOutboxWriter.STORAGE_PREFIX.length()));
+        }
+        return Mono.<Void>fromRunnable(() -> {
                     try {
-                        FileUploadedEvent event = fileMapper.toEvent(savedFile, savedFile.getStoragePath());
-                        String payload = objectMapper.writeValueAsString(event);
-
-                        OutboxEntity outbox = OutboxEntity.builder()
-                                .eventType("FILE_UPLOADED")
-                                .payload(payload)
-                                .status("NEW")
-                                .createdAt(Instant.now())
-                                .build();
-
-                        return outboxRepository.save(outbox).thenReturn(savedFile);
-                    } catch (Exception e) {
-                        return Mono.error(new RuntimeException("Failed to serialize outbox event", e));
+                        Files.deleteIfExists(Paths.get(storagePath));
+                    } catch (IOException e) {
+                        log.warn("Could not delete temp file: {}", storagePath, e);
                     }
-                });
+                })
+                .subscribeOn(Schedulers.boundedElastic());
     }
 
+    // Под заявленный размер зарезервировано место (а в MinIO тело пишется как есть), поэтому больше него принять нельзя.
+    // Лишний буфер не передаётся дальше и освобождается один раз - хуком discard, а не здесь
+    private static Flux<DataBuffer> limited(Flux<DataBuffer> content, long declaredSize, AtomicLong size) {
+        return content.<DataBuffer>handle((buffer, sink) -> {
+                    long total = size.addAndGet(buffer.readableByteCount());
+                    if (declaredSize > 0 && total > declaredSize) {
+                        sink.error(new ResponseStatusException(HttpStatus.PAYLOAD_TOO_LARGE, "File exceeds declared size of " + declaredSize + " bytes"));
+                        return;
+                    }
+                    sink.next(buffer);
+                })
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
 
+    private static Flux<DataBuffer> digesting(Flux<DataBuffer> content, MessageDigest digest) {
+        return content.doOnNext(buffer -> {
+            try (DataBuffer.ByteBufferIterator iterator = buffer.readableByteBuffers()) {
+                iterator.forEachRemaining(digest::update);
+            }
+        });
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
 }
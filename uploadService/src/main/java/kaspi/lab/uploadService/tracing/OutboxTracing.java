@@ -0,0 +1,53 @@
+package kaspi.lab.uploadService.tracing;
+
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import io.micrometer.tracing.propagation.Propagator;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Перенос trace context через outbox: при записи файла сохраняется traceparent текущего запроса,
+ * а relay открывает от него дочерний span и кладёт его контекст в заголовки Kafka.
+ */
+@Component
+@RequiredArgsConstructor
+public class OutboxTracing {
+
+    public static final String TRACEPARENT = "traceparent";
+
+    private final Tracer tracer;
+    private final Propagator propagator;
+
+    // traceparent текущего span или null, если вызов идёт вне трассируемого запроса
+    public String currentTraceContext() {
+        Span span = tracer.currentSpan();
+        if (span == null) {
+            return null;
+        }
+        Map<String, String> carrier = new HashMap<>();
+        propagator.inject(span.context(), carrier, Map::put);
+        return carrier.get(TRACEPARENT);
+    }
+
+    /**
+     * Span отправки события в Kafka, дочерний к запросу загрузки. Без сохранённого контекста - новый trace.
+     */
+    public Span startRelaySpan(String traceContext) {
+        Span.Builder builder = traceContext != null
+                ? propagator.extract(Map.of(TRACEPARENT, traceContext), Map::get)
+                : tracer.spanBuilder();
+        return builder.name("outbox relay")
+                .kind(Span.Kind.PRODUCER)
+                .start();
+    }
+
+    public Map<String, String> headers(Span span) {
+        Map<String, String> carrier = new HashMap<>();
+        propagator.inject(span.context(), carrier, Map::put);
+        return carrier;
+    }
+}
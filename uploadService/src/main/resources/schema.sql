@@ -18,5 +18,38 @@ CREATE TABLE IF NOT EXISTS outbox (
                         created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
 );
 
+CREATE TABLE IF NOT EXISTS stored_objects (
+                        content_hash VARCHAR(64) PRIMARY KEY, -- SHA-256 содержимого (hex)
+                        object_name VARCHAR(512) NOT NULL,
+                        ref_count INT NOT NULL,
+                        uploaded BOOLEAN NOT NULL DEFAULT FALSE,
+                        created_at TIMESTAMP WITH TIME ZONE DEFAULT CURRENT_TIMESTAMP
+);
+
+ALTER TABLE files ADD COLUMN IF NOT EXISTS content_hash VARCHAR(64);
+
+-- События пишутся в бинарном формате (FileUploadedEventCodec); payload остаётся для старых JSON-строк
+ALTER TABLE outbox ADD COLUMN IF NOT EXISTS payload_bin BYTEA;
+ALTER TABLE outbox ALTER COLUMN payload DROP NOT NULL;
+
+-- W3C traceparent запроса загрузки, из него relay продолжает trace в Kafka
+ALTER TABLE outbox ADD COLUMN IF NOT EXISTS trace_context VARCHAR(128);
+
+-- Ключ записи в Kafka; у строк, записанных раньше, его нет и они уходят без ключа
+ALTER TABLE outbox ADD COLUMN IF NOT EXISTS aggregate_id VARCHAR(64);
+
+-- Объект в MinIO может храниться сжатым (zstd/gzip); original_size - размер несжатого содержимого
+ALTER TABLE files ADD COLUMN IF NOT EXISTS content_encoding VARCHAR(16);
+ALTER TABLE files ADD COLUMN IF NOT EXISTS original_size BIGINT;
+ALTER TABLE stored_objects ADD COLUMN IF NOT EXISTS content_encoding VARCHAR(16);
+ALTER TABLE stored_objects ADD COLUMN IF NOT EXISTS original_size BIGINT;
+
+-- Какой файл держит ссылку на объект: повторная доставка события не добавляет вторую ссылку
+CREATE TABLE IF NOT EXISTS stored_object_refs (
+                        file_id UUID PRIMARY KEY,
+                        content_hash VARCHAR(64) NOT NULL
+);
+
 CREATE INDEX IF NOT EXISTS idx_files_idempotency ON files(idempotency_key);
+CREATE INDEX IF NOT EXISTS idx_files_content_hash ON files(content_hash);
 CREATE INDEX IF NOT EXISTS idx_outbox_status ON outbox(status) WHERE status = 'NEW';
@@ -0,0 +1,370 @@
+package kaspi.lab.uploadService;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import kaspi.lab.eventContract.FileStatusNotifications;
+import kaspi.lab.eventContract.FileUploadedEvent;
+import kaspi.lab.eventContract.FileUploadedEventCodec;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Нагрузочный бенчмарк uploadService без docker-compose.
+ *
+ * Инфраструктура поднимается локально: embedded Kafka, embedded Redis и embedded Postgres.
+ * Вместо processingService работает заглушка: читает события из Kafka и переводит файл
+ * в COMPLETED тем же UPDATE + pg_notify, что и FileStatusWriter.
+ *
+ * Нагрузка открытая (constant arrival rate): запрос i стартует в момент t0 + i * interval,
+ * даже если предыдущие ещё не ответили. Задержка считается от запланированного момента,
+ * поэтому очередь на стороне клиента не прячет деградацию (поправка на coordinated omission).
+ * Для сравнения печатается и «наивная» задержка от фактической отправки.
+ *
+ * Для каждого размера меряется время до 202 и время до COMPLETED (через SSE /events).
+ *
+ * Запуск: mvn -pl uploadService test -Pload-benchmark
+ * Параметры (-D...):
+ *   loadbench.sizes     - размеры файлов, по умолчанию 1KB,64KB,1MB,16MB,128MB,1GB
+ *   loadbench.rate      - запросов в секунду для маленьких файлов, по умолчанию 50
+ *   loadbench.bandwidth - предел отправляемых байт в секунду, по нему снижается rate для больших файлов, по умолчанию 200MB
+ *   loadbench.duration  - секунд нагрузки на каждый размер, по умолчанию 20
+ * Гистограммы сохраняются в target/load-benchmark/*.hgrm.
+ */
+@Tag("benchmark")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@EmbeddedKafka(topics = "file-uploaded-topic", partitions = 4)
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+                "app.upload.mode=disk",
+                "app.upload.outbox-check-interval=1000"
+        })
+class FileUploadLoadBenchmarkTest {
+
+    private static final String UPLOAD_PATH = "/api/v1/files/upload";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long MAX_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private static EmbeddedPostgres postgres;
+    private static RedisServer redis;
+    private static Path workDir;
+
+    @Value("${local.server.port}")
+    private int port;
+
+    @Autowired
+    private EmbeddedKafkaBroker kafkaBroker;
+
+    private WebClient webClient;
+    private ConnectionProvider connectionProvider;
+    private ExecutorService processor;
+    private final AtomicBoolean processorRunning = new AtomicBoolean(true);
+    private final AtomicInteger keyCounter = new AtomicInteger();
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+
+    @DynamicPropertySource
+    static void infrastructure(DynamicPropertyRegistry registry) throws IOException {
+        workDir = Files.createTempDirectory("load-benchmark");
+        postgres = EmbeddedPostgres.builder().start();
+
+        int redisPort = freePort();
+        redis = new RedisServer(redisPort);
+        redis.start();
+
+        registry.add("spring.r2dbc.url", () -> "r2dbc:postgresql://localhost:" + postgres.getPort() + "/postgres");
+        registry.add("spring.r2dbc.username", () -> "postgres");
+        registry.add("spring.r2dbc.password", () -> "postgres");
+        registry.add("spring.data.redis.host", () -> "localhost");
+        registry.add("spring.data.redis.port", () -> redisPort);
+        registry.add("app.upload.temp-path", () -> workDir.resolve("uploads").toString());
+        registry.add("app.upload.cache-path", () -> workDir.resolve("cache").toString());
+        // Рабочая машина с бенчмарком редко держит гигабайт запаса во временном каталоге
+        registry.add("app.upload.temp-min-free", () -> "256MB");
+        // Весь бенчмарк идёт от одного клиента, клиентская квота мерила бы саму себя
+        registry.add("app.upload.rate-limit-enabled", () -> "false");
+    }
+
+    @BeforeAll
+    void setUp() throws IOException {
+        Files.createDirectories(workDir.resolve("uploads"));
+        new Random(42).nextBytes(chunk);
+
+        // Открытая модель: запросы не ждут свободного соединения дольше, чем нужно
+        connectionProvider = ConnectionProvider.builder("load-benchmark")
+                .maxConnections(2_000)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        webClient = WebClient.builder()
+                .baseUrl("http://localhost:" + port)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connectionProvider)))
+                .build();
+
+        processor = Executors.newSingleThreadExecutor(r -> new Thread(r, "stand-in-processor"));
+        processor.submit(this::runStandInProcessor);
+    }
+
+    @AfterAll
+    void tearDown() throws IOException {
+        processorRunning.set(false);
+        processor.shutdown();
+        connectionProvider.dispose();
+        if (redis != null) {
+            redis.stop();
+        }
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Test
+    @DisplayName("Открытая нагрузка по размерам файлов: время до 202 и до COMPLETED")
+    void sizeSweep() throws IOException {
+        List<DataSize> sizes = Arrays.stream(System.getProperty("loadbench.sizes", "1KB,64KB,1MB,16MB,128MB,1GB").split(","))
+                .map(String::trim)
+                .map(DataSize::parse)
+                .toList();
+        double baseRate = Double.parseDouble(System.getProperty("loadbench.rate", "50"));
+        long bandwidth = DataSize.parse(System.getProperty("loadbench.bandwidth", "200MB")).toBytes();
+        long durationSeconds = Long.parseLong(System.getProperty("loadbench.duration", "20"));
+
+        Path reportDir = Paths.get("target", "load-benchmark");
+        Files.createDirectories(reportDir);
+
+        // Разогрев JIT, пулов соединений и кэшей, в отчёт не идёт
+        runLoad(1024, 10, 5);
+
+        for (DataSize size : sizes) {
+            long bytes = size.toBytes();
+            double rate = Math.min(baseRate, (double) bandwidth / bytes);
+            int requests = (int) Math.max(3, Math.round(rate * durationSeconds));
+
+            LoadResult result = runLoad(bytes, rate, requests);
+            printReport(size, rate, result);
+            result.save(reportDir, size.toString());
+        }
+    }
+
+    private LoadResult runLoad(long fileSize, double rate, int requests) {
+        LoadResult result = new LoadResult();
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        long start = System.nanoTime();
+
+        Flux.range(0, requests)
+                .flatMap(i -> {
+                    long intended = start + i * intervalNanos;
+                    return Mono.delay(Duration.ofNanos(Math.max(0, intended - System.nanoTime())))
+                            .then(Mono.defer(() -> uploadAndAwait(fileSize, intended, result)));
+                }, Integer.MAX_VALUE)
+                .blockLast(Duration.ofHours(1));
+
+        result.elapsedNanos = System.nanoTime() - start;
+        return result;
+    }
+
+    private Mono<Void> uploadAndAwait(long fileSize, long intended, LoadResult result) {
+        long sent = System.nanoTime();
+
+        return upload(fileSize)
+                .flatMap(fileId -> {
+                    long accepted = System.nanoTime();
+                    result.accepted.recordValue(micros(accepted - intended));
+                    result.acceptedNaive.recordValue(micros(accepted - sent));
+                    return awaitCompletion(fileId);
+                })
+                .doOnSuccess(status -> {
+                    if ("COMPLETED".equals(status)) {
+                        result.completed.recordValue(micros(System.nanoTime() - intended));
+                    } else {
+                        result.failed.incrementAndGet();
+                    }
+                })
+                .onErrorResume(e -> {
+                    result.failed.incrementAndGet();
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Mono<String> upload(long fileSize) {
+        int n = keyCounter.incrementAndGet();
+
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.asyncPart("file", content(fileSize), DataBuffer.class)
+                .filename("load-" + n + ".bin")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM);
+
+        return webClient.post()
+                .uri(UPLOAD_PATH)
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .header("X-Idempotency-Key", "load-benchmark-" + n + "-" + UUID.randomUUID())
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .retrieve()
+                .bodyToMono(new ParameterizedTypeReference<Map<String, Object>>() {})
+                .map(body -> String.valueOf(body.get("fileId")));
+    }
+
+    // Содержимое генерируется потоком, чтобы гигабайтные файлы не держать в памяти
+    private Flux<DataBuffer> content(long fileSize) {
+        int chunks = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        return Flux.range(0, chunks)
+                .map(i -> {
+                    int length = (int) Math.min(CHUNK_SIZE, fileSize - (long) i * CHUNK_SIZE);
+                    return DefaultDataBufferFactory.sharedInstance.wrap(ByteBuffer.wrap(chunk, 0, length));
+                });
+    }
+
+    private Mono<String> awaitCompletion(String fileId) {
+        return webClient.get()
+                .uri("/api/v1/files/{id}/events", fileId)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .retrieve()
+                .bodyToFlux(new ParameterizedTypeReference<ServerSentEvent<String>>() {})
+                .map(event -> Objects.requireNonNullElse(event.event(), ""))
+                .filter(status -> status.equals("COMPLETED") || status.equals("FAILED"))
+                .next();
+    }
+
+    /**
+     * Заглушка processingService: вместо загрузки в MinIO сразу помечает файл COMPLETED
+     * и удаляет временный файл. Статус пишется тем же UPDATE + pg_notify, что и в FileStatusWriter,
+     * поэтому uploadService получает уведомление для SSE.
+     */
+    private void runStandInProcessor() {
+        Map<String, Object> props = Map.of(
+                ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaBroker.getBrokersAsString(),
+                ConsumerConfig.GROUP_ID_CONFIG, "load-benchmark-processor",
+                ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest",
+                ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class,
+                ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+
+        String sql = "WITH updated AS (UPDATE files SET status = 'COMPLETED', storage_path = ? WHERE id = ? RETURNING id, status) "
+                + "SELECT pg_notify('" + FileStatusNotifications.CHANNEL + "', id::text || ':' || status) FROM updated";
+
+        try (KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(props);
+             Connection connection = postgres.getPostgresDatabase().getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql)) {
+            consumer.subscribe(List.of("file-uploaded-topic"));
+
+            while (processorRunning.get()) {
+                for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofMillis(100))) {
+                    FileUploadedEvent event = FileUploadedEventCodec.decode(record.value());
+                    statement.setString(1, "minio://" + event.fileId());
+                    statement.setObject(2, event.fileId());
+                    statement.executeQuery().close();
+                    if (event.tempPath() != null) {
+                        Files.deleteIfExists(Paths.get(event.tempPath()));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            if (processorRunning.get()) {
+                System.err.println("Stand-in processor failed: " + e);
+            }
+        }
+    }
+
+    private void printReport(DataSize size, double rate, LoadResult result) {
+        long done = result.completed.getTotalCount();
+        double seconds = result.elapsedNanos / 1e9;
+
+        System.out.println();
+        System.out.println("══════════════════════════════════════════════════════");
+        System.out.printf("  Файл: %s | Rate: %.2f req/s | Длительность: %.1f s%n", size, rate, seconds);
+        System.out.printf("  COMPLETED: %d | Ошибок: %d | Throughput: %.1f files/s, %.1f MB/s%n",
+                done, result.failed.get(), done / seconds, done * size.toBytes() / seconds / (1024 * 1024));
+        System.out.println("══════════════════════════════════════════════════════");
+        System.out.println("  Задержка, ms        p50      p90      p99    p99.9      max");
+        printRow("  До 202 (CO)     ", result.accepted);
+        printRow("  До 202 (наивно) ", result.acceptedNaive);
+        printRow("  До COMPLETED    ", result.completed);
+        System.out.println();
+    }
+
+    private void printRow(String label, Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            System.out.println(label + "  нет данных");
+            return;
+        }
+        System.out.printf("%s %8.1f %8.1f %8.1f %8.1f %8.1f%n", label,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+
+    private static long micros(long nanos) {
+        return Math.min(MAX_LATENCY_MICROS, TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos)));
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static final class LoadResult {
+        final Histogram accepted = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+        final Histogram acceptedNaive = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+        final Histogram completed = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+        final AtomicInteger failed = new AtomicInteger();
+        long elapsedNanos;
+
+        // Формат .hgrm открывается HdrHistogram plotter'ом, значения в миллисекундах
+        void save(Path dir, String name) throws IOException {
+            write(dir.resolve(name + "-accepted.hgrm"), accepted);
+            write(dir.resolve(name + "-completed.hgrm"), completed);
+        }
+
+        private static void write(Path file, Histogram histogram) throws IOException {
+            try (PrintStream out = new PrintStream(Files.newOutputStream(file))) {
+                histogram.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package kaspi.lab.uploadService.admission;
+
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.security.Principal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ClientRateLimitFilterTest {
+
+    private static final WebFilterChain CHAIN = exchange -> Mono.empty();
+
+    private ClientRateLimiter rateLimiter;
+    private ClientRateLimitFilter filter;
+
+    @BeforeEach
+    void setUp() {
+        rateLimiter = mock(ClientRateLimiter.class);
+        when(rateLimiter.tryAcquire(anyString(), anyLong())).thenReturn(Mono.just(ClientRateLimiter.Decision.ALLOWED));
+
+        AppUploadProperties props = new AppUploadProperties();
+        props.setRateLimitTrustedProxies(List.of("10.0.0.0/8", "2001:db8::/33"));
+        filter = new ClientRateLimitFilter(rateLimiter, props);
+    }
+
+    @Test
+    @DisplayName("Границы IPv4-подсети, в том числе с префиксом не по границе байта")
+    void ipv4PrefixEdges() throws UnknownHostException {
+        ClientRateLimitFilter.Network aligned = ClientRateLimitFilter.Network.parse("10.0.0.0/8");
+        assertThat(aligned.contains(address("10.0.0.0"))).isTrue();
+        assertThat(aligned.contains(address("10.255.255.255"))).isTrue();
+        assertThat(aligned.contains(address("11.0.0.0"))).isFalse();
+        assertThat(aligned.contains(address("9.255.255.255"))).isFalse();
+
+        ClientRateLimitFilter.Network unaligned = ClientRateLimitFilter.Network.parse("192.168.2.0/23");
+        assertThat(unaligned.contains(address("192.168.2.0"))).isTrue();
+        assertThat(unaligned.contains(address("192.168.3.255"))).isTrue();
+        assertThat(unaligned.contains(address("192.168.1.255"))).isFalse();
+        assertThat(unaligned.contains(address("192.168.4.0"))).isFalse();
+
+        ClientRateLimitFilter.Network single = ClientRateLimitFilter.Network.parse("172.16.0.7");
+        assertThat(single.contains(address("172.16.0.7"))).isTrue();
+        assertThat(single.contains(address("172.16.0.6"))).isFalse();
+
+        ClientRateLimitFilter.Network any = ClientRateLimitFilter.Network.parse("0.0.0.0/0");
+        assertThat(any.contains(address("203.0.113.9"))).isTrue();
+        assertThat(any.contains(address("2001:db8::1"))).isFalse();
+    }
+
+    @Test
+    @DisplayName("Границы IPv6-подсети; IPv4-адрес в неё не попадает")
+    void ipv6PrefixEdges() throws UnknownHostException {
+        ClientRateLimitFilter.Network network = ClientRateLimitFilter.Network.parse("2001:db8::/33");
+        assertThat(network.contains(address("2001:db8::"))).isTrue();
+        assertThat(network.contains(address("2001:db8:7fff:ffff:ffff:ffff:ffff:ffff"))).isTrue();
+        assertThat(network.contains(address("2001:db8:8000::"))).isFalse();
+        assertThat(network.contains(address("2001:db9::"))).isFalse();
+        assertThat(network.contains(address("10.0.0.1"))).isFalse();
+
+        ClientRateLimitFilter.Network single = ClientRateLimitFilter.Network.parse("::1/128");
+        assertThat(single.contains(address("::1"))).isTrue();
+        assertThat(single.contains(address("::2"))).isFalse();
+    }
+
+    @Test
+    @DisplayName("Некорректный префикс отклоняется при старте, а не молча доверяет всем")
+    void rejectsBadPrefix() {
+        assertThatThrownBy(() -> ClientRateLimitFilter.Network.parse("10.0.0.0/33")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ClientRateLimitFilter.Network.parse("10.0.0.0/-1")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ClientRateLimitFilter.Network.parse("2001:db8::/129")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ClientRateLimitFilter.Network.parse("10.0.0.0/x")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("X-Client-Id от доверенного прокси становится идентификатором клиента")
+    void trustsHeaderFromProxy() {
+        filter.filter(upload("10.20.30.40", "tenant-a"), CHAIN).block();
+
+        verify(rateLimiter).tryAcquire(eq("id:tenant-a"), anyLong());
+    }
+
+    @Test
+    @DisplayName("X-Client-Id от остальных игнорируется: клиент считается по адресу")
+    void ignoresHeaderFromClient() {
+        filter.filter(upload("203.0.113.9", "tenant-a"), CHAIN).block();
+        filter.filter(upload("203.0.113.9", "tenant-b"), CHAIN).block();
+
+        verify(rateLimiter, times(2)).tryAcquire(eq("ip:203.0.113.9"), anyLong());
+        verify(rateLimiter, never()).tryAcquire(eq("id:tenant-a"), anyLong());
+    }
+
+    @Test
+    @DisplayName("Аутентифицированный пользователь важнее заголовка прокси")
+    void principalWins() {
+        Principal principal = () -> "alice";
+        ServerWebExchange exchange = upload("10.20.30.40", "tenant-a").mutate()
+                .principal(Mono.just(principal))
+                .build();
+
+        filter.filter(exchange, CHAIN).block();
+
+        verify(rateLimiter).tryAcquire(eq("user:alice"), anyLong());
+    }
+
+    @Test
+    @DisplayName("Отказ квоты - 429 с Retry-After")
+    void throttledGets429() {
+        when(rateLimiter.tryAcquire(anyString(), anyLong()))
+                .thenReturn(Mono.just(new ClientRateLimiter.Decision(false, "requests", 3)));
+        MockServerWebExchange exchange = upload("203.0.113.9", null);
+
+        filter.filter(exchange, CHAIN).block();
+
+        assertThat(exchange.getResponse().getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+        assertThat(exchange.getResponse().getHeaders().getFirst("Retry-After")).isEqualTo("3");
+    }
+
+    private static MockServerWebExchange upload(String remoteAddress, String clientId) {
+        MockServerHttpRequest.BodyBuilder request = MockServerHttpRequest.post("/api/v1/files/upload")
+                .remoteAddress(new InetSocketAddress(remoteAddress, 40000));
+        if (clientId != null) {
+            request.header(ClientRateLimitFilter.CLIENT_ID_HEADER, clientId);
+        }
+        return MockServerWebExchange.from(request);
+    }
+
+    private static InetAddress address(String literal) throws UnknownHostException {
+        return InetAddress.getByName(literal);
+    }
+}
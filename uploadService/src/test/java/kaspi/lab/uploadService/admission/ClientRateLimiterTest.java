@@ -0,0 +1,94 @@
+package kaspi.lab.uploadService.admission;
+
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.metrics.UploadMetrics;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ClientRateLimiterTest {
+
+    private static final long TTL = 100;
+
+    @Test
+    @DisplayName("Пачка выдаёт токены, пока хватает, и не списывает частично")
+    void leaseTakesWholeAmountOrNothing() {
+        ClientRateLimiter.LocalLease lease = new ClientRateLimiter.LocalLease();
+        lease.add(3, 0, TTL);
+
+        assertThat(lease.tryTake(5, 10)).isEqualTo(2);
+        assertThat(lease.tryTake(3, 20)).isZero();
+        assertThat(lease.tryTake(1, 30)).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Пачка сгорает по истечении TTL")
+    void leaseExpires() {
+        ClientRateLimiter.LocalLease lease = new ClientRateLimiter.LocalLease();
+        lease.add(3, 0, TTL);
+
+        assertThat(lease.tryTake(1, TTL)).isZero();
+        assertThat(lease.tryTake(1, TTL + 1)).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Возврат пополняет живую пачку и сгорает вместе с ней")
+    void refundBurnsWithLease() {
+        ClientRateLimiter.LocalLease lease = new ClientRateLimiter.LocalLease();
+        lease.add(5, 0, TTL);
+        assertThat(lease.tryTake(5, 10)).isZero();
+
+        lease.refund(2, TTL);
+        assertThat(lease.tryTake(2, TTL)).isZero();
+        assertThat(lease.tryTake(1, TTL)).isEqualTo(1);
+
+        lease.refund(2, TTL);
+        assertThat(lease.tryTake(1, TTL + 1)).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Запрос, отклонённый по байтам, возвращает токен запросов")
+    @SuppressWarnings("unchecked")
+    void bytesRejectionRefundsRequestToken() {
+        AtomicInteger requestLeases = new AtomicInteger();
+        ReactiveStringRedisTemplate redisTemplate = mock(ReactiveStringRedisTemplate.class);
+        // В корзине запросов один токен, корзина байт пуста
+        when(redisTemplate.execute(any(RedisScript.class), anyList(), anyList())).thenAnswer(invocation -> {
+            List<String> keys = invocation.getArgument(1);
+            if (keys.getFirst().endsWith(":requests")) {
+                return Flux.just(requestLeases.incrementAndGet() == 1 ? 1L : 0L);
+            }
+            return Flux.just(0L);
+        });
+
+        AppUploadProperties props = new AppUploadProperties();
+        props.setRateLimitLeaseTtl(Duration.ofMinutes(1));
+        ClientRateLimiter limiter = new ClientRateLimiter(props, redisTemplate, mock(UploadMetrics.class));
+
+        StepVerifier.create(limiter.tryAcquire("ip:203.0.113.9", 1024))
+                .assertNext(decision -> {
+                    assertThat(decision.allowed()).isFalse();
+                    assertThat(decision.quota()).isEqualTo("bytes");
+                })
+                .verifyComplete();
+
+        // Без возврата токен ушёл бы на отклонённый запрос, и Redis больше ничего не выдал бы
+        StepVerifier.create(limiter.tryAcquire("ip:203.0.113.9", 0))
+                .assertNext(decision -> assertThat(decision.allowed()).isTrue())
+                .verifyComplete();
+        assertThat(requestLeases).hasValue(1);
+    }
+}
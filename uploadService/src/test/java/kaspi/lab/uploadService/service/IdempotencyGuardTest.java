@@ -0,0 +1,175 @@
+package kaspi.lab.uploadService.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import kaspi.lab.uploadService.config.AppUploadProperties;
+import kaspi.lab.uploadService.domain.FileEntity;
+import kaspi.lab.uploadService.repository.FileRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.core.ReactiveValueOperations;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class IdempotencyGuardTest {
+
+    private static final TypeReference<String> TYPE = new TypeReference<>() {};
+    private static final String KEY = "key-1";
+    private static final String REDIS_KEY = "idempotency:upload:" + KEY;
+    private static final Duration IN_PROGRESS_TTL = Duration.ofSeconds(3);
+
+    private ReactiveStringRedisTemplate redisTemplate;
+    private ReactiveValueOperations<String, String> valueOps;
+    private FileRepository fileRepository;
+    private IdempotencyGuard guard;
+    private AtomicInteger actionCalls;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redisTemplate = mock(ReactiveStringRedisTemplate.class);
+        valueOps = mock(ReactiveValueOperations.class);
+        fileRepository = mock(FileRepository.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOps);
+        when(redisTemplate.expire(anyString(), any(Duration.class))).thenReturn(Mono.just(true));
+        when(redisTemplate.delete(anyString())).thenReturn(Mono.just(1L));
+        when(valueOps.set(anyString(), anyString(), any(Duration.class))).thenReturn(Mono.just(true));
+
+        AppUploadProperties props = new AppUploadProperties();
+        props.setIdempotencyTtl(3600L);
+        props.setIdempotencyInProgressTtl(IN_PROGRESS_TTL.toSeconds());
+        props.setIdempotencyWaitTimeout(2L);
+        guard = new IdempotencyGuard(props, redisTemplate, new ObjectMapper());
+        actionCalls = new AtomicInteger();
+    }
+
+    @Test
+    @DisplayName("Маркер IN_PROGRESS продлевается, пока запрос идёт, и перестаёт после ответа")
+    void keepsInProgressMarkerAlive() {
+        when(valueOps.setIfAbsent(REDIS_KEY, "IN_PROGRESS", IN_PROGRESS_TTL)).thenReturn(Mono.just(true));
+
+        StepVerifier.withVirtualTime(() -> execute(Mono.delay(Duration.ofMillis(3500)).thenReturn("done")))
+                .thenAwait(Duration.ofMillis(3500))
+                .expectNext("done")
+                .thenAwait(Duration.ofSeconds(5))
+                .verifyComplete();
+
+        // Продление раз в IN_PROGRESS_TTL / 3: на 1, 2 и 3 секунде, и ни разу после ответа
+        verify(redisTemplate, times(3)).expire(REDIS_KEY, IN_PROGRESS_TTL);
+        verify(valueOps).set(eq(REDIS_KEY), eq("\"done\""), eq(Duration.ofSeconds(3600)));
+    }
+
+    @Test
+    @DisplayName("Ответ сохраняется и повтор отдаётся из локального кэша без Redis")
+    void replaysFromLocalCache() {
+        when(valueOps.setIfAbsent(REDIS_KEY, "IN_PROGRESS", IN_PROGRESS_TTL)).thenReturn(Mono.just(true));
+
+        StepVerifier.create(execute(Mono.just("done"))).expectNext("done").verifyComplete();
+        StepVerifier.create(execute(Mono.just("other"))).expectNext("done").verifyComplete();
+
+        assertThat(actionCalls).hasValue(1);
+        verify(valueOps, times(1)).setIfAbsent(anyString(), anyString(), any(Duration.class));
+    }
+
+    @Test
+    @DisplayName("Неудачный запрос снимает маркер, чтобы ретрай не ждал его истечения")
+    void failedActionReleasesMarker() {
+        when(valueOps.setIfAbsent(REDIS_KEY, "IN_PROGRESS", IN_PROGRESS_TTL)).thenReturn(Mono.just(true));
+
+        StepVerifier.create(execute(Mono.error(new IllegalStateException("boom"))))
+                .expectErrorMessage("boom")
+                .verify();
+
+        verify(redisTemplate).delete(REDIS_KEY);
+        verify(valueOps, never()).set(anyString(), anyString(), any(Duration.class));
+    }
+
+    @Test
+    @DisplayName("Дубль ждёт ответа первого запроса и получает его")
+    void duplicateAwaitsFirstResponse() {
+        AtomicInteger polls = new AtomicInteger();
+        when(valueOps.setIfAbsent(REDIS_KEY, "IN_PROGRESS", IN_PROGRESS_TTL)).thenReturn(Mono.just(false));
+        when(valueOps.get(REDIS_KEY)).thenReturn(Mono.fromSupplier(() -> polls.incrementAndGet() < 3 ? "IN_PROGRESS" : "\"done\""));
+
+        StepVerifier.withVirtualTime(() -> execute(Mono.just("duplicate")))
+                .thenAwait(Duration.ofSeconds(1))
+                .expectNext("done")
+                .verifyComplete();
+
+        assertThat(actionCalls).hasValue(0);
+    }
+
+    @Test
+    @DisplayName("Дубль получает 409, если первый запрос не ответил за idempotency-wait-timeout")
+    void duplicateTimesOutWithConflict() {
+        when(valueOps.setIfAbsent(REDIS_KEY, "IN_PROGRESS", IN_PROGRESS_TTL)).thenReturn(Mono.just(false));
+        when(valueOps.get(REDIS_KEY)).thenReturn(Mono.just("IN_PROGRESS"));
+
+        StepVerifier.withVirtualTime(() -> execute(Mono.just("duplicate")))
+                .thenAwait(Duration.ofSeconds(3))
+                .expectErrorSatisfies(e -> assertThat(e)
+                        .isInstanceOfSatisfying(ResponseStatusException.class,
+                                status -> assertThat(status.getStatusCode()).isEqualTo(HttpStatus.CONFLICT)))
+                .verify();
+
+        assertThat(actionCalls).hasValue(0);
+    }
+
+    @Test
+    @DisplayName("Без Redis сохранённый в files ответ отдаётся без повторного выполнения")
+    void withoutRedisReplaysStoredResult() {
+        when(valueOps.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+                .thenReturn(Mono.error(new RedisConnectionFailureException("Redis is down")));
+        when(fileRepository.findByIdempotencyKey(KEY)).thenReturn(Mono.just(FileEntity.builder().filename("stored").build()));
+
+        StepVerifier.create(execute(Mono.just("new"))).expectNext("stored").verifyComplete();
+
+        assertThat(actionCalls).hasValue(0);
+    }
+
+    @Test
+    @DisplayName("Без Redis новый ключ выполняется, а проигравший гонку по уникальному индексу получает чужой ответ")
+    void withoutRedisRunsNewKeyAndReplaysOnUniqueViolation() {
+        when(valueOps.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+                .thenReturn(Mono.error(new RedisConnectionFailureException("Redis is down")));
+        when(fileRepository.findByIdempotencyKey(KEY)).thenReturn(Mono.empty());
+
+        StepVerifier.create(execute(Mono.just("new"))).expectNext("new").verifyComplete();
+
+        // Другой инстанс успел записать файл с тем же ключом между проверкой и вставкой
+        when(fileRepository.findByIdempotencyKey(KEY))
+                .thenReturn(Mono.empty(), Mono.just(FileEntity.builder().filename("winner").build()));
+
+        StepVerifier.create(execute(Mono.error(new DataIntegrityViolationException("duplicate key"))))
+                .expectNext("winner")
+                .verifyComplete();
+    }
+
+    private Mono<String> execute(Mono<String> action) {
+        return guard.execute("upload", KEY, TYPE,
+                () -> {
+                    actionCalls.incrementAndGet();
+                    return action;
+                },
+                () -> fileRepository.findByIdempotencyKey(KEY).map(FileEntity::getFilename));
+    }
+}